@@ -7,6 +7,7 @@ plugins {
     id("dev.yumi.gradle.licenser") version "2.2.1"
     id("net.minecrell.plugin-yml.bukkit") version "0.6.0"
     id("com.gradleup.shadow") version "9.3.0"
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "eu.mikroskeem"
@@ -24,12 +25,20 @@ repositories {
     maven("https://repo.papermc.io/repository/maven-public/")
 }
 
+// Headless runtime bootstrap used for creating the AOT cache and measuring startup
+val startup: SourceSet by sourceSets.creating
+
 dependencies {
     implementation("org.clojure:clojure:$clojureVersion")
     implementation("org.clojure:core.async:$clojureAsyncVersion")
     implementation("clj-commons:pomegranate:$pomegranateVersion")
 
     compileOnly("io.papermc.paper:paper-api:$paperApiVersion")
+
+    jmh("io.papermc.paper:paper-api:$paperApiVersion")
+
+    "startupCompileOnly"("org.clojure:clojure:$clojureVersion")
+    "startupRuntimeOnly"("io.papermc.paper:paper-api:$paperApiVersion")
 }
 
 java {
@@ -38,6 +47,14 @@ java {
 
 apply(from = "clojure.gradle")
 
+jmh {
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("reports/jmh/results.json")
+}
+
 license {
     rule(file("etc/HEADER"))
 
@@ -85,3 +102,48 @@ val shadowJar by tasks.getting(ShadowJar::class) {
 }
 
 tasks["build"].dependsOn(shadowJar)
+
+// AOT cache (JEP 483/514) of classes loaded while booting the Clojure runtime from the shaded jar
+val aotCacheFile = layout.buildDirectory.file("aot/bukkitclj.aot")
+
+fun JavaExec.runtimeBootstrap() {
+    dependsOn(shadowJar)
+    classpath = files(shadowJar.archiveFile, startup.runtimeClasspath)
+    mainClass.set("eu.mikroskeem.bukkitclj.startup.RuntimeBootstrap")
+}
+
+val createAotCache by tasks.registering(JavaExec::class) {
+    group = "build"
+    description = "Creates an AOT cache by booting the Clojure runtime from the shaded jar"
+    runtimeBootstrap()
+    args("training")
+    outputs.file(aotCacheFile)
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-XX:AOTCacheOutput=${aotCacheFile.get().asFile}")
+    })
+}
+
+val startupBenchmarkBaseline by tasks.registering(JavaExec::class) {
+    group = "benchmark"
+    description = "Boots the Clojure runtime without AOT cache"
+    runtimeBootstrap()
+    args("none")
+}
+
+val startupBenchmarkAotCache by tasks.registering(JavaExec::class) {
+    group = "benchmark"
+    description = "Boots the Clojure runtime with AOT cache"
+    runtimeBootstrap()
+    dependsOn(createAotCache)
+    mustRunAfter(startupBenchmarkBaseline)
+    args(aotCacheFile.get().asFile.name)
+    jvmArgumentProviders.add(CommandLineArgumentProvider {
+        listOf("-XX:AOTCache=${aotCacheFile.get().asFile}")
+    })
+}
+
+tasks.register("startupBenchmark") {
+    group = "benchmark"
+    description = "Compares Clojure runtime boot time with and without AOT cache"
+    dependsOn(startupBenchmarkBaseline, startupBenchmarkAotCache)
+}
@@ -1,8 +1,8 @@
 (ns nrepl-server
+  {:bukkitclj/dependencies '[[nrepl/nrepl "1.5.2" :exclusions [[org.clojure]]]
+                             [cider/cider-nrepl "0.58.0" :exclusions [[org.clojure]]]]}
   (:require [bukkitclj.api :refer [def-command def-command-completion message]]
-            [bukkitclj.api.logger :as log]
-            [cemerick.pomegranate :as pom]
-            [cemerick.pomegranate.aether :as aether]))
+            [bukkitclj.api.logger :as log]))
 
 ;; State
 (defonce nrepl-classloader (atom nil))
@@ -16,17 +16,6 @@
         (reset! nrepl-classloader cl)
         cl)))
 
-(defn- load-nrepl-deps! []
-  (let [cl (setup-classloader!)]
-    (log/info "Loading nREPL dependencies into classloader {}" cl)
-    (pom/add-dependencies
-     :coordinates '[[nrepl/nrepl "1.5.2" :exclusions [[org.clojure]]]
-                    [cider/cider-nrepl "0.58.0" :exclusions [[org.clojure]]]]
-     :classloader cl
-     :repositories (merge aether/maven-central
-                          {"clojars" "https://clojars.org/repo/"}))
-    (log/info "nREPL dependencies loaded")))
-
 (defn start-server!
   ([] (start-server! 7888))
   ([port]
@@ -37,7 +26,6 @@
        (.setContextClassLoader (Thread/currentThread) cl)
        (try
          (with-bindings {clojure.lang.Compiler/LOADER cl}
-           (load-nrepl-deps!)
            (let [start-server (requiring-resolve 'nrepl.server/start-server)
                  cider-nrepl-handler (requiring-resolve 'cider.nrepl/cider-nrepl-handler)
                  wrapped-handler (fn [msg]
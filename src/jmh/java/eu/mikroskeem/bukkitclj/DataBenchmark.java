@@ -0,0 +1,93 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of script data through edn files and binary snapshots
+ *
+ * @author Mark Vainomaa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataBenchmark {
+    private Path directory;
+    private File ednFile;
+    private Path snapshotFile;
+    private IFn loadEdn;
+    private IFn dumpEdn;
+    private Object data;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("bukkitclj.api.data"));
+        loadEdn = Clojure.var("bukkitclj.api.data", "load-edn");
+        dumpEdn = Clojure.var("bukkitclj.api.data", "dump-edn");
+        data = Clojure.var("clojure.core", "eval").invoke(Clojure.read(
+                "(into {} (for [i (range 1000)] [(keyword (str \"player-\" i)) {:kills i :name (str \"Player\" i) :online (even? i)}]))"));
+
+        directory = Files.createTempDirectory("bukkitclj-jmh");
+        ednFile = directory.resolve("data.edn").toFile();
+        snapshotFile = directory.resolve("data.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(ednFile.toPath());
+        Files.deleteIfExists(snapshotFile);
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public Object ednRoundTrip() {
+        dumpEdn.invoke(ednFile, data);
+        return loadEdn.invoke(ednFile);
+    }
+
+    @Benchmark
+    public Object snapshotRoundTrip() throws IOException {
+        BinarySnapshot.write(snapshotFile, data);
+        return BinarySnapshot.read(snapshotFile);
+    }
+}
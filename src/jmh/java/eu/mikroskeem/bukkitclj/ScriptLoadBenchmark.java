@@ -0,0 +1,128 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.java.api.Clojure;
+import clojure.lang.Compiler;
+import clojure.lang.DynamicClassLoader;
+import clojure.lang.RT;
+import clojure.lang.Var;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Script compilation and loading of already compiled scripts from the cache, which is
+ * what BukkitClj#loadScriptFromFile does before registering anything
+ *
+ * @author Mark Vainomaa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScriptLoadBenchmark {
+    static final String SCRIPT = "(ns benchmark.script\n"
+            + "  (:require [clojure.string :as str]))\n"
+            + "\n"
+            + "(defn greeting [name] (str \"Hello, \" (str/capitalize name) \"!\"))\n"
+            + "(defn score [kills deaths] (if (zero? deaths) kills (/ kills deaths)))\n"
+            + "(defn top [players n] (take n (sort-by :score > players)))\n"
+            + "(defn parse-args [args] (into {} (map #(str/split % #\"=\" 2)) args))\n"
+            + "(defmacro with-prefix [prefix & body] `(str ~prefix (do ~@body)))\n"
+            + "(defn announce [name] (with-prefix \"[Server] \" (greeting name)))\n"
+            + "(def config {:max-players 20 :motd \"Welcome\" :spawn [0 64 0]})\n";
+
+    private Path directory;
+    private ScriptCache cache;
+    private ScriptSource source;
+    private Path cachedDirectory;
+    private DynamicClassLoader parentClassLoader;
+    private int compilations;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("bukkitclj.internal"));
+
+        directory = Files.createTempDirectory("bukkitclj-jmh");
+        Path script = directory.resolve("script.clj");
+        Files.writeString(script, SCRIPT);
+
+        source = ScriptSource.read(script);
+        cache = new ScriptCache(directory.resolve("cache"), "benchmark", "benchmark");
+        parentClassLoader = new DynamicClassLoader(ScriptLoadBenchmark.class.getClassLoader());
+        cachedDirectory = cache.getCacheDirectory(source.getScriptName(), source.getDigest());
+        compile(cachedDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void compile() throws IOException {
+        compile(cachedDirectory.resolveSibling("compile-" + compilations++));
+    }
+
+    @Benchmark
+    public Class<?> loadCached() throws Exception {
+        DynamicClassLoader classLoader = new DynamicClassLoader(parentClassLoader);
+        classLoader.addURL(cachedDirectory.toUri().toURL());
+        Var.pushThreadBindings(RT.map(Compiler.LOADER, classLoader));
+        try {
+            return Class.forName(ScriptCache.getInitClassName(source.getNamespace()), true, classLoader);
+        } finally {
+            Var.popThreadBindings();
+        }
+    }
+
+    private void compile(Path target) throws IOException {
+        Var.pushThreadBindings(RT.map(Compiler.LOADER, new DynamicClassLoader(parentClassLoader)));
+        try (Reader reader = source.newReader()) {
+            cache.compile(target, reader, source.getNamespace(), source.getScriptName());
+        } finally {
+            Var.popThreadBindings();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj.wrappers;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import clojure.lang.Namespace;
+import clojure.lang.Symbol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of passing command invocations and tab completions to Clojure functions
+ *
+ * @author Mark Vainomaa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandBenchmark {
+    private final String[] args = { "give", "diamond", "64" };
+    private ClojureCommandFn command;
+
+    @Setup
+    public void setup() {
+        IFn eval = Clojure.var("clojure.core", "eval");
+        IFn handler = (IFn) eval.invoke(Clojure.read("(fn [sender label args] (= (count args) 3))"));
+        IFn tabcompleteHandler = (IFn) eval.invoke(Clojure.read("(fn [sender label args] [\"alpha\" \"beta\" \"gamma\"])"));
+        command = new ClojureCommandFn(Namespace.findOrCreate(Symbol.intern("benchmark")), "benchmark", null,
+                new String[0], handler);
+        command.setTabcompleteHandler(tabcompleteHandler, false);
+    }
+
+    @Benchmark
+    public boolean execute() {
+        return command.execute(null, "benchmark", args);
+    }
+
+    @Benchmark
+    public List<String> tabComplete() {
+        return command.tabComplete(null, "benchmark", args);
+    }
+}
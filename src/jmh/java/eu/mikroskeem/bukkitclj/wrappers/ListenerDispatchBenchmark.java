@@ -0,0 +1,97 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj.wrappers;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import clojure.lang.Namespace;
+import clojure.lang.Symbol;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventPriority;
+import org.bukkit.plugin.RegisteredListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of passing an event to a Clojure listener, going through the same RegisteredListener
+ * and EventDispatcher path as events fired by the server. Also compares checking whether a
+ * dispatcher handles an event subclass directly against looking it up from a ClassValue.
+ *
+ * @author Mark Vainomaa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ListenerDispatchBenchmark {
+    private RegisteredListener registered;
+    private BenchmarkEvent event;
+    private Class<? extends Event> registeredClass;
+    private ClassValue<Boolean> accepts;
+
+    @Setup
+    public void setup() {
+        IFn eval = Clojure.var("clojure.core", "eval");
+        IFn handler = (IFn) eval.invoke(Clojure.read("(fn [^org.bukkit.event.Event event] (.isAsynchronous event))"));
+        ClojureListenerFn listener = new ClojureListenerFn(Namespace.findOrCreate(Symbol.intern("benchmark")), handler,
+                BenchmarkEvent.class, EventPriority.NORMAL, false);
+        EventDispatcher dispatcher = EventDispatcher.createUnregistered(List.of(listener));
+        registered = new RegisteredListener(dispatcher, dispatcher, EventPriority.NORMAL, null, false);
+        event = new BenchmarkEvent();
+
+        // Listener registered for a superclass of the fired event
+        registeredClass = Event.class;
+        accepts = new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return registeredClass.isAssignableFrom(type);
+            }
+        };
+    }
+
+    @Benchmark
+    public void dispatch() throws EventException {
+        registered.callEvent(event);
+    }
+
+    @Benchmark
+    public boolean assignableFrom() {
+        return registeredClass.isAssignableFrom(event.getClass());
+    }
+
+    @Benchmark
+    public boolean classValue() {
+        return accepts.get(event.getClass());
+    }
+}
@@ -3,8 +3,7 @@
            (org.bukkit.command CommandSender)
            (org.bukkit.entity Player)
            (org.bukkit.event Cancellable Event)
-           (eu.mikroskeem.bukkitclj BukkitClj ScriptHelper))
-  (:gen-class))
+           (eu.mikroskeem.bukkitclj BukkitClj ScriptHelper ScriptScheduler ScriptScheduler$Task)))
 
 (defn get-player
   "Returns an online player object by name"
@@ -27,15 +26,24 @@
   (BukkitClj/getInstance))
 
 (defmacro on
-  "Adds an event listener for the specified event"
+  "Adds an event listener for the specified event.
+
+  With `:async true` the handler runs off the main thread. It receives the result of
+  `:snapshot` function called with the event on the main thread, which is required for
+  async listeners as events must not be touched off the main thread. `:backpressure`
+  decides what happens when handlers cannot keep up: `:drop` (default), `:block` (waits
+  a limited time for room, then drops) or `:coalesce`"
   [the-class options func]
    `(ScriptHelper/createEventListener
-     ~*ns*
+     (the-ns '~(ns-name *ns*))
      (if-not (instance? Class ~the-class)
        (Class/forName (.toString ~the-class))
        ~the-class)
      (:priority ~options :normal)
      (:ignore-cancelled ~options false)
+     (:async ~options false)
+     (:snapshot ~options nil)
+     (:backpressure ~options :drop)
      ~func))
 
 (defn cancel-event
@@ -48,18 +56,20 @@
   "Defines a command"
   [options func]
   `(ScriptHelper/createCommand
-    ~*ns*
+    (the-ns '~(ns-name *ns*))
     (:name ~options nil)
     (:permission ~options nil)
     (into-array String (:aliases ~options []))
     ~func))
 
 (defmacro def-command-completion
-  "Defines a command completion"
+  "Defines a command completion. The function may return any collection or reducible of strings.
+  With `:filter-prefix true` only completions starting with the argument being completed are shown"
   [options func]
   `(ScriptHelper/createCommandCompletion
-    ~*ns*
+    (the-ns '~(ns-name *ns*))
     (:name ~options nil)
+    (:filter-prefix ~options false)
     ~func))
 
 (defmacro def-permission
@@ -67,7 +77,7 @@
   Not usually needed except when defining who has said permission by default"
   [opts]
   `(ScriptHelper/createPermission
-    ~*ns*
+    (the-ns '~(ns-name *ns*))
     (:name ~opts nil)
     (:override ~opts false)
     (:default ~opts :op)))
@@ -87,7 +97,23 @@
   [^CommandSender sender ^String node]
   (.hasPermission sender node))
 
-;(defn schedule
-;  "Schedules a task"
-;  [options func]
-;  ())
+(defmacro schedule
+  "Schedules a task to run on the main thread.
+
+  Options:
+  - `:delay` - ticks to wait before the first run, 0 by default
+  - `:period` - ticks between runs of a repeating task, task runs once when not set
+
+  Script tasks share a time budget per tick, tasks which do not fit into it run on the next tick.
+  Tasks are cancelled when the script gets unloaded. Returns a task which can be cancelled with `cancel-task`"
+  [options func]
+  `(ScriptScheduler/schedule
+    (the-ns '~(ns-name *ns*))
+    (:delay ~options 0)
+    (:period ~options 0)
+    ~func))
+
+(defn cancel-task
+  "Cancels a scheduled task"
+  [^ScriptScheduler$Task task]
+  (.cancel task))
@@ -0,0 +1,65 @@
+(ns bukkitclj.api.async
+  "core.async integration: Bukkit events as channels and running callbacks on the main thread"
+  (:require [clojure.core.async :as async]
+            [bukkitclj.api :refer [on]])
+  (:import (eu.mikroskeem.bukkitclj MainThreadDispatcher ScriptHelper)))
+
+(defmacro close-on-unload!
+  "Closes the channel when the script gets unloaded. Returns the channel"
+  [ch]
+  `(let [ch# ~ch]
+     (ScriptHelper/addUnloadHook (the-ns '~(ns-name *ns*)) (fn [] (async/close! ch#)))
+     ch#))
+
+(defn- event-buffer [type size]
+  (case type
+    :sliding (async/sliding-buffer size)
+    :dropping (async/dropping-buffer size)))
+
+(defmacro event-chan
+  "Returns a channel receiving events of the specified class. Like `on`, can only be used at script load.
+  Putting events never blocks the main thread, events which do not fit into the buffer are discarded.
+  Bukkit events must not be used off the main thread, so a `:snapshot` function copying the needed
+  data out of the event is required.
+
+  Options:
+  - `:buffer` - `:sliding` (default) keeps the newest events, `:dropping` keeps the oldest
+  - `:size` - buffer size, 64 by default
+  - `:snapshot` - function applied to the event on the main thread, nil results are not put. Required
+  - `:priority` and `:ignore-cancelled` - same as with `on`
+
+  Channel is closed when the script gets unloaded"
+  ([the-class]
+   `(event-chan ~the-class {}))
+  ([the-class options]
+   `(let [options# ~options
+          ch# (async/chan (#'event-buffer (:buffer options# :sliding) (:size options# 64)))
+          snapshot# (or (:snapshot options#)
+                        (throw (IllegalArgumentException. "event-chan needs a :snapshot function!")))]
+      (on ~the-class (select-keys options# [:priority :ignore-cancelled])
+          (fn [event#]
+            (when-some [value# (snapshot# event#)]
+              (async/put! ch# value#))))
+      (close-on-unload! ch#))))
+
+(defn run-on-main!
+  "Runs f on the main thread, returns a promise channel receiving its result.
+  Callbacks are run in batches once per tick. Channel is closed without a value
+  when f returns nil or throws, or when the plugin is disabled before f runs"
+  [f]
+  (let [ch (async/promise-chan)]
+    (MainThreadDispatcher/execute
+     (fn []
+       (try
+         (when-some [result (f)]
+           (async/put! ch result))
+         (finally
+           (async/close! ch))))
+     (fn []
+       (async/close! ch)))
+    ch))
+
+(defmacro on-main
+  "Runs body on the main thread, returns a channel receiving the result. Use with `<!` inside `go` blocks"
+  [& body]
+  `(run-on-main! (fn [] ~@body)))
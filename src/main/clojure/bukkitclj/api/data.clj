@@ -1,19 +1,23 @@
 (ns bukkitclj.api.data
-  (:require [clojure.java.io :as io])
-  (:import (eu.mikroskeem.bukkitclj ScriptHelper)
-           (java.io File))
-  (:gen-class))
+  (:import (eu.mikroskeem.bukkitclj BinarySnapshot ScriptHelper)
+           (java.io File PushbackReader)
+           (java.nio.file Files OpenOption)))
 
 (defmacro get-data-file
   "Gets script specific data file"
   []
-  `(ScriptHelper/getScriptDataFile ~*ns*))
+  `(ScriptHelper/getScriptDataFile (the-ns '~(ns-name *ns*))))
+
+(defmacro get-snapshot-file
+  "Gets script specific binary snapshot file"
+  []
+  `(ScriptHelper/getScriptSnapshotFile (the-ns '~(ns-name *ns*))))
 
 (defn load-edn
   "Loads edn from file or returns nil"
   [^File file]
   (if (.exists file)
-    (with-open [r (java.io.PushbackReader. (io/reader file))]
+    (with-open [r (PushbackReader. (Files/newBufferedReader (.toPath file)))]
       (binding [*read-eval* false]
         (read r false nil)))
     nil))
@@ -21,6 +25,38 @@
 (defn dump-edn
   "Dumps Clojure objects into edn file"
   [^File file data]
-  (with-open [w (io/writer file)]
+  (with-open [w (Files/newBufferedWriter (.toPath file) (make-array OpenOption 0))]
     (binding [*out* w]
-      (pr data))))
\ No newline at end of file
+      (pr data))))
+
+(defn read-data
+  "Reads edn from file or returns nil. The file is read from disk only once,
+  after that data is served from memory"
+  [^File file]
+  (ScriptHelper/readData file))
+
+(defn write-data!
+  "Stores data into edn file without blocking. Data is written to disk by a
+  background thread, repeated writes to the same file are coalesced"
+  [^File file data]
+  (ScriptHelper/writeData file data))
+
+(defn flush-data!
+  "Writes all pending data to disk, blocking until done"
+  []
+  (ScriptHelper/flushData))
+
+
+(defn load-snapshot
+  "Loads data from binary snapshot file or returns nil.
+  A top-level map is decoded lazily, its values are decoded on first access.
+  If edn-file is given and the snapshot does not exist yet, data is migrated from it"
+  ([^File file]
+   (BinarySnapshot/read (.toPath file)))
+  ([^File file ^File edn-file]
+   (BinarySnapshot/readOrMigrate (.toPath file) (.toPath edn-file))))
+
+(defn dump-snapshot
+  "Dumps Clojure data into binary snapshot file"
+  [^File file data]
+  (BinarySnapshot/write (.toPath file) data))
@@ -1,22 +1,37 @@
 (ns bukkitclj.api.logger
   (:import (eu.mikroskeem.bukkitclj.wrappers LoggerHelper)
-           (org.slf4j.event Level))
-  (:gen-class))
+           (org.slf4j Logger)
+           (org.slf4j.event Level)))
 
-(defmacro get-logger []
-  `(LoggerHelper/get ~*ns*))
+(defmacro get-logger
+  "Returns logger of current namespace. Logger is kept in a var interned on first use, so it is not looked up on every call"
+  []
+  (LoggerHelper/intern *ns*)
+  LoggerHelper/LOGGER_VAR)
+
+(defn- emit-log [level fmt args]
+  (let [logger (gensym "logger")
+        call (case (count args)
+               0 `(LoggerHelper/log0 ~level ~logger ~fmt)
+               1 `(LoggerHelper/log1 ~level ~logger ~fmt ~@args)
+               2 `(LoggerHelper/log2 ~level ~logger ~fmt ~@args)
+               `(LoggerHelper/log ~level ~logger ~fmt (object-array [~@args])))]
+    ; Arguments are evaluated only when given level is enabled
+    `(let [~(with-meta logger {:tag `Logger}) (get-logger)]
+       (when (LoggerHelper/isEnabled ~level ~logger)
+         ~call))))
 
 (defmacro trace [^String fmt & args]
-  `(LoggerHelper/log Level/TRACE (get-logger) ~fmt (into-array Object [~@args])))
+  (emit-log `Level/TRACE fmt args))
 
 (defmacro debug [^String fmt & args]
-  `(LoggerHelper/log Level/DEBUG (get-logger) ~fmt (into-array Object [~@args])))
+  (emit-log `Level/DEBUG fmt args))
 
 (defmacro info [^String fmt & args]
-  `(LoggerHelper/log Level/INFO (get-logger) ~fmt (into-array Object [~@args])))
+  (emit-log `Level/INFO fmt args))
 
 (defmacro warn [^String fmt & args]
-  `(LoggerHelper/log Level/WARN (get-logger) ~fmt (into-array Object [~@args])))
+  (emit-log `Level/WARN fmt args))
 
 (defmacro error [^String fmt & args]
-  `(LoggerHelper/log Level/ERROR (get-logger) ~fmt (into-array Object [~@args])))
\ No newline at end of file
+  (emit-log `Level/ERROR fmt args))
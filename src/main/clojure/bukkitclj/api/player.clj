@@ -1,7 +1,6 @@
 (ns bukkitclj.api.player
   (:require [bukkitclj.api :refer [bukkitclj-instance]])
-  (:import (org.bukkit.entity Player))
-  (:gen-class))
+  (:import (org.bukkit.entity Player)))
 
 (defn hide-player
   "Hides x from y"
@@ -1,10 +1,67 @@
 (ns bukkitclj.internal
-  (:gen-class))
+  (:import (clojure.lang LineNumberingPushbackReader)
+           (java.io FileReader)
+           (java.nio.charset StandardCharsets)))
+
+(defn get-file-ns-form
+  "Reads only the first top-level form of a file, which is expected to be the ns form"
+  [file-path]
+  (with-open [r (LineNumberingPushbackReader. (FileReader. (str file-path) StandardCharsets/UTF_8))]
+    (binding [*read-eval* false]
+      (read r false nil))))
 
-; Thanks to @eallik for this :)
 (defn get-file-ns [file-path]
-  (let [sexps (load-string (str "'(" (slurp file-path) ")"))]
-    (second (first sexps))))
+  (second (get-file-ns-form file-path)))
+
+(defn- libspec-names [prefix spec]
+  (let [qualify (fn [lib] (if prefix (symbol (str prefix "." lib)) lib))]
+    (cond
+      (symbol? spec) [(qualify spec)]
+      (not (sequential? spec)) []
+      (or (< (count spec) 2) (keyword? (second spec))) [(qualify (first spec))]
+      :else (mapcat #(libspec-names (qualify (first spec)) %) (rest spec)))))
+
+(defn get-ns-requires
+  "Returns namespaces required in :require and :use clauses of a ns form"
+  [ns-form]
+  (->> (rest ns-form)
+       (filter #(and (seq? %) (#{:require :use} (first %))))
+       (mapcat rest)
+       (mapcat #(libspec-names nil %))
+       (distinct)))
+
+(defn get-ns-dependencies
+  "Returns Maven coordinates declared with :bukkitclj/dependencies in the attr-map of a ns form"
+  [ns-form]
+  (let [references (drop 2 ns-form)
+        references (if (string? (first references)) (rest references) references)
+        attr-map (first references)
+        dependencies (when (map? attr-map) (:bukkitclj/dependencies attr-map))]
+    ; Attr-map gets evaluated, so dependency vector is usually quoted
+    (if (and (seq? dependencies) (= 'quote (first dependencies)))
+      (second dependencies)
+      dependencies)))
+
+(defn resolve-dependency-artifacts
+  "Resolves Maven dependencies into a local repository, returning [group/artifact version file] of all artifacts"
+  [coordinates local-repo repositories offline?]
+  (let [resolve-dependencies (requiring-resolve 'cemerick.pomegranate.aether/resolve-dependencies)
+        graph (resolve-dependencies :coordinates coordinates
+                                    :repositories repositories
+                                    :local-repo local-repo
+                                    :offline? offline?)]
+    (for [[artifact version :as coordinate] (keys graph)
+          :let [file (:file (meta coordinate))]
+          :when file]
+      [(if (namespace artifact) (str artifact) (str artifact "/" artifact)) (str version) file])))
+
+(defn unload-libs
+  "Removes given namespaces and marks them as not loaded, so requiring them loads them again"
+  [names]
+  (doseq [name names]
+    (remove-ns name))
+  (dosync
+   (commute @#'clojure.core/*loaded-libs* #(reduce disj % names))))
 
 (defn get-clojure-class-loader
   "Returns the root Clojure class loader shared by all scripts"
@@ -0,0 +1,92 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.Compiler;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads bukkitclj API namespaces on first use instead of on plugin enable.
+ *
+ * API namespaces are required in the root Clojure classloader before the first script requiring them
+ * is defined, so they are loaded from the plugin jar only once and never compiled into a script cache.
+ *
+ * @author Mark Vainomaa
+ */
+final class ApiNamespaces {
+    private static final Set<String> loaded = ConcurrentHashMap.newKeySet();
+
+    private ApiNamespaces() {}
+
+    /*
+     * Loads API namespaces among given requires which are not loaded yet
+     */
+    static void require(Set<String> requires) {
+        for (String namespace : requires) {
+            if (!loaded.contains(namespace) && isApiNamespace(namespace)) {
+                load(namespace);
+            }
+        }
+    }
+
+    private static synchronized void load(String namespace) {
+        if (loaded.contains(namespace)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Var.pushThreadBindings(RT.mapUniqueKeys(
+                Compiler.LOADER, BukkitClj.clojureClassLoader,
+                Compiler.COMPILE_FILES, Boolean.FALSE
+        ));
+        try {
+            RT.var("clojure.core", "require").invoke(Symbol.intern(namespace));
+        } finally {
+            Var.popThreadBindings();
+        }
+        loaded.add(namespace);
+        BukkitClj.logger().debug("Loaded {} in {}ms", namespace, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /*
+     * Returns whether namespace is shipped with the plugin
+     */
+    private static boolean isApiNamespace(String namespace) {
+        if (!namespace.startsWith("bukkitclj.")) {
+            return false;
+        }
+
+        ClassLoader pluginCl = BukkitClj.class.getClassLoader();
+        return pluginCl.getResource(ScriptCache.getInitClassName(namespace).replace('.', '/') + ".class") != null
+                || pluginCl.getResource(ScriptCache.getSourcePath(namespace)) != null;
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.APersistentMap;
+import clojure.lang.IMapEntry;
+import clojure.lang.IPersistentCollection;
+import clojure.lang.IPersistentList;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IPersistentSet;
+import clojure.lang.IPersistentVector;
+import clojure.lang.ISeq;
+import clojure.lang.ITransientCollection;
+import clojure.lang.ITransientMap;
+import clojure.lang.Keyword;
+import clojure.lang.LispReader;
+import clojure.lang.MapEntry;
+import clojure.lang.PersistentArrayMap;
+import clojure.lang.PersistentHashMap;
+import clojure.lang.PersistentHashSet;
+import clojure.lang.PersistentList;
+import clojure.lang.PersistentVector;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compact binary persistence format for large script data.
+ *
+ * Values are written using a tagged encoding. A top-level map is written with the byte length of
+ * every value, which lets the reader index only the keys of a memory mapped file and decode values
+ * lazily on first access. Values without a dedicated tag are stored as printed edn.
+ *
+ * @author Mark Vainomaa
+ */
+public final class BinarySnapshot {
+    private static final int MAGIC = 0x42434C4A; // "BCLJ"
+    private static final byte VERSION = 1;
+
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final byte KEYWORD = 6;
+    private static final byte SYMBOL = 7;
+    private static final byte VECTOR = 8;
+    private static final byte LIST = 9;
+    private static final byte SET = 10;
+    private static final byte MAP = 11;
+    private static final byte INDEXED_MAP = 12;
+    private static final byte EDN = 13;
+
+    private BinarySnapshot() {}
+
+    /*
+     * Reads a snapshot file, returns nil if it does not exist
+     */
+    public static Object read(Path file) throws IOException {
+        if (Files.notExists(file)) {
+            return null;
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < 5 || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a BukkitClj snapshot file");
+        }
+        if (buffer.get(4) != VERSION) {
+            throw new IOException(file + " has unsupported snapshot version " + buffer.get(4));
+        }
+        return new Decoder(buffer).decode(5);
+    }
+
+    /*
+     * Reads a snapshot file, or migrates data from the edn file if the snapshot does not exist yet
+     */
+    public static Object readOrMigrate(Path file, Path ednFile) throws IOException {
+        if (Files.exists(file) || Files.notExists(ednFile)) {
+            return read(file);
+        }
+
+        Object data;
+        Var.pushThreadBindings(RT.map(RT.READEVAL, Boolean.FALSE));
+        try (Reader reader = Files.newBufferedReader(ednFile, StandardCharsets.UTF_8)) {
+            data = LispReader.read(new PushbackReader(reader), false, null, false);
+        } finally {
+            Var.popThreadBindings();
+        }
+
+        write(file, data);
+        return data;
+    }
+
+    public static void write(Path file, Object data) throws IOException {
+        Encoder encoder = new Encoder();
+        encoder.writeInt(MAGIC);
+        encoder.writeByte(VERSION);
+        if (data instanceof Map) {
+            encoder.encodeIndexedMap((Map<?, ?>) data);
+        } else {
+            encoder.encode(data);
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            out.write(encoder.bytes, 0, encoder.position);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Encoder {
+        private byte[] bytes = new byte[8192];
+        private int position = 0;
+
+        void encode(Object value) {
+            if (value == null) {
+                writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                writeByte(LONG);
+                writeLong(((Number) value).longValue());
+            } else if (value instanceof Double || value instanceof Float) {
+                writeByte(DOUBLE);
+                writeLong(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+            } else if (value instanceof String) {
+                writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof Keyword) {
+                writeByte(KEYWORD);
+                writeString(((Keyword) value).sym.toString());
+            } else if (value instanceof Symbol) {
+                writeByte(SYMBOL);
+                writeString(value.toString());
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                writeByte(MAP);
+                writeInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    encode(entry.getKey());
+                    encode(entry.getValue());
+                }
+            } else if (value instanceof IPersistentSet || value instanceof java.util.Set) {
+                writeCollection(SET, (Collection<?>) value);
+            } else if (value instanceof IPersistentVector || (value instanceof List && !(value instanceof ISeq))) {
+                writeCollection(VECTOR, (Collection<?>) value);
+            } else if (value instanceof ISeq || value instanceof IPersistentList) {
+                writeCollection(LIST, (Collection<?>) value);
+            } else {
+                writeByte(EDN);
+                writeString(RT.printString(value));
+            }
+        }
+
+        void encodeIndexedMap(Map<?, ?> map) {
+            writeByte(INDEXED_MAP);
+            writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                encode(entry.getKey());
+
+                // Reserve space for value length
+                int lengthPosition = position;
+                writeInt(0);
+                encode(entry.getValue());
+                putInt(lengthPosition, position - lengthPosition - 4);
+            }
+        }
+
+        private void writeCollection(byte tag, Collection<?> collection) {
+            writeByte(tag);
+            writeInt(collection.size());
+            for (Object item : collection) {
+                encode(item);
+            }
+        }
+
+        void writeByte(byte value) {
+            ensureCapacity(1);
+            bytes[position++] = value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            putInt(position, value);
+            position += 4;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(encoded.length);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, position, encoded.length);
+            position += encoded.length;
+        }
+
+        private void putInt(int at, int value) {
+            bytes[at] = (byte) (value >>> 24);
+            bytes[at + 1] = (byte) (value >>> 16);
+            bytes[at + 2] = (byte) (value >>> 8);
+            bytes[at + 3] = (byte) value;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (position + needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + needed));
+            }
+        }
+    }
+
+    /*
+     * Decodes values using absolute reads only, so a decoder can be shared between threads
+     */
+    private static final class Decoder {
+        private final ByteBuffer buffer;
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        Object decode(int at) {
+            return decode(new int[] { at });
+        }
+
+        /*
+         * Decodes value at cursor[0] and advances the cursor past it
+         */
+        Object decode(int[] cursor) {
+            byte tag = buffer.get(cursor[0]++);
+            switch (tag) {
+                case NIL: return null;
+                case TRUE: return Boolean.TRUE;
+                case FALSE: return Boolean.FALSE;
+                case LONG: return readLong(cursor);
+                case DOUBLE: return Double.longBitsToDouble(readLong(cursor));
+                case STRING: return readString(cursor);
+                case KEYWORD: return Keyword.intern(Symbol.intern(readString(cursor)));
+                case SYMBOL: return Symbol.intern(readString(cursor));
+                case VECTOR: {
+                    int count = readInt(cursor);
+                    ITransientCollection vector = PersistentVector.EMPTY.asTransient();
+                    for (int i = 0; i < count; i++) {
+                        vector = vector.conj(decode(cursor));
+                    }
+                    return vector.persistent();
+                }
+                case LIST: {
+                    int count = readInt(cursor);
+                    List<Object> items = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        items.add(decode(cursor));
+                    }
+                    return PersistentList.create(items);
+                }
+                case SET: {
+                    int count = readInt(cursor);
+                    ITransientCollection set = PersistentHashSet.EMPTY.asTransient();
+                    for (int i = 0; i < count; i++) {
+                        set = set.conj(decode(cursor));
+                    }
+                    return set.persistent();
+                }
+                case MAP: {
+                    int count = readInt(cursor);
+                    ITransientMap map = PersistentArrayMap.EMPTY.asTransient();
+                    for (int i = 0; i < count; i++) {
+                        Object key = decode(cursor);
+                        map = map.assoc(key, decode(cursor));
+                    }
+                    return map.persistent();
+                }
+                case INDEXED_MAP: return new LazyMap(this, cursor);
+                case EDN: {
+                    String edn = readString(cursor);
+                    Var.pushThreadBindings(RT.map(RT.READEVAL, Boolean.FALSE));
+                    try {
+                        return LispReader.read(new PushbackReader(new StringReader(edn)), false, null, false);
+                    } finally {
+                        Var.popThreadBindings();
+                    }
+                }
+                default:
+                    throw new IllegalStateException("Unknown snapshot tag " + tag + " at " + (cursor[0] - 1));
+            }
+        }
+
+        int readInt(int[] cursor) {
+            int value = buffer.getInt(cursor[0]);
+            cursor[0] += 4;
+            return value;
+        }
+
+        long readLong(int[] cursor) {
+            long value = buffer.getLong(cursor[0]);
+            cursor[0] += 8;
+            return value;
+        }
+
+        String readString(int[] cursor) {
+            int length = readInt(cursor);
+            byte[] bytes = new byte[length];
+            buffer.get(cursor[0], bytes);
+            cursor[0] += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /*
+     * Top-level snapshot map. Keys are decoded when the snapshot is opened, values on first access
+     */
+    private static final class LazyMap extends APersistentMap {
+        private static final Object NOT_DECODED = new Object();
+
+        private final Decoder decoder;
+        private final Object[] keys;
+        private final int[] valueOffsets;
+        private final AtomicReferenceArray<Object> values;
+        private final IPersistentMap index; // Key -> index in keys array
+
+        LazyMap(Decoder decoder, int[] cursor) {
+            this.decoder = decoder;
+            int count = decoder.readInt(cursor);
+            this.keys = new Object[count];
+            this.valueOffsets = new int[count];
+            this.values = new AtomicReferenceArray<>(count);
+
+            ITransientMap index = PersistentHashMap.EMPTY.asTransient();
+            for (int i = 0; i < count; i++) {
+                keys[i] = decoder.decode(cursor);
+                int length = decoder.readInt(cursor);
+                valueOffsets[i] = cursor[0];
+                values.set(i, NOT_DECODED);
+                index = index.assoc(keys[i], i);
+                cursor[0] += length;
+            }
+            this.index = index.persistent();
+        }
+
+        private Object valueAt(int i) {
+            Object value = values.get(i);
+            if (value == NOT_DECODED) {
+                value = decoder.decode(valueOffsets[i]);
+                values.set(i, value);
+            }
+            return value;
+        }
+
+        private IPersistentMap materialize() {
+            ITransientMap map = PersistentHashMap.EMPTY.asTransient();
+            for (int i = 0; i < keys.length; i++) {
+                map = map.assoc(keys[i], valueAt(i));
+            }
+            return map.persistent();
+        }
+
+        @Override
+        public IPersistentMap assoc(Object key, Object val) {
+            return materialize().assoc(key, val);
+        }
+
+        @Override
+        public IPersistentMap assocEx(Object key, Object val) {
+            return materialize().assocEx(key, val);
+        }
+
+        @Override
+        public IPersistentMap without(Object key) {
+            return materialize().without(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index.containsKey(key);
+        }
+
+        @Override
+        public IMapEntry entryAt(Object key) {
+            Object i = index.valAt(key);
+            return i == null ? null : MapEntry.create(keys[(Integer) i], valueAt((Integer) i));
+        }
+
+        @Override
+        public Object valAt(Object key) {
+            return valAt(key, null);
+        }
+
+        @Override
+        public Object valAt(Object key, Object notFound) {
+            Object i = index.valAt(key);
+            return i == null ? notFound : valueAt((Integer) i);
+        }
+
+        @Override
+        public int count() {
+            return keys.length;
+        }
+
+        @Override
+        public ISeq seq() {
+            return keys.length == 0 ? null : RT.chunkIteratorSeq(iterator());
+        }
+
+        @Override
+        public IPersistentCollection empty() {
+            return PersistentArrayMap.EMPTY;
+        }
+
+        @Override
+        public Iterator iterator() {
+            return new Iterator<Object>() {
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < keys.length;
+                }
+
+                @Override
+                public Object next() {
+                    if (i >= keys.length) {
+                        throw new NoSuchElementException();
+                    }
+                    int current = i++;
+                    return MapEntry.create(keys[current], valueAt(current));
+                }
+            };
+        }
+    }
+}
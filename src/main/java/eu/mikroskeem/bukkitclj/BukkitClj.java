@@ -29,27 +29,40 @@ import clojure.java.api.Clojure;
 import clojure.lang.Compiler;
 import clojure.lang.DynamicClassLoader;
 import clojure.lang.IFn;
+import clojure.lang.IPersistentSet;
+import clojure.lang.Namespace;
 import clojure.lang.RT;
+import clojure.lang.Symbol;
 import clojure.lang.Var;
 import eu.mikroskeem.bukkitclj.api.ScriptManager;
 import eu.mikroskeem.bukkitclj.command.BukkitCljCommand;
+import eu.mikroskeem.bukkitclj.wrappers.AsyncEventExecutor;
+import eu.mikroskeem.bukkitclj.wrappers.ClojureCommandFn;
+import eu.mikroskeem.bukkitclj.wrappers.CompletionCache;
+import eu.mikroskeem.bukkitclj.wrappers.EventDispatcher;
+import eu.mikroskeem.bukkitclj.wrappers.LoggerHelper;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.command.TabCompleter;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -57,16 +70,27 @@ import java.util.stream.Stream;
  */
 public final class BukkitClj extends JavaPlugin implements ScriptManager {
     public static DynamicClassLoader clojureClassLoader;
-    private final ReentrantReadWriteLock loadingLock = new ReentrantReadWriteLock();
-    private final Map<String, ScriptInfo> scripts = new HashMap<>(); // Script filename -> script info
+    private final ScriptRegistry scripts = new ScriptRegistry();
 
     static Path scriptsPath;
     static Path scriptDataPath;
     static Path cljLibPath;
-    static ScriptInfo currentScript = null;
+    static final Map<String, ScriptInfo> loadingScripts = new ConcurrentHashMap<>(); // Namespace -> script being loaded
+    private static final Object requireLock = new Object(); // Held while loading namespaces required by scripts
+    private final Map<String, String> scriptCacheKeys = new ConcurrentHashMap<>(); // Namespace -> cache key of its defined version
+    private ScriptCache scriptCache;
+    private DependencyResolver dependencyResolver;
+    private ScriptReloader scriptReloader;
+    private ScriptWatcher scriptWatcher;
+    private BukkitCljCommand command;
+    private final ClassLoaderLeakDetector leakDetector = new ClassLoaderLeakDetector();
+    ScriptDataStore dataStore;
+    SharedLibraries sharedLibraries;
 
     @Override
     public void onEnable() {
+        saveDefaultConfig();
+
         // Set up scripts directory
         scriptsPath = getDataFolder().toPath().resolve("scripts");
         if (Files.notExists(scriptsPath)) {
@@ -91,6 +115,11 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
             }
         }
 
+        dataStore = new ScriptDataStore(getConfig().getLong("data.flush-delay-ms"));
+        AsyncEventExecutor.start(Math.max(1, getConfig().getInt("async-events.threads")),
+                Math.max(1, getConfig().getInt("async-events.queue-size")),
+                Math.max(0, getConfig().getLong("async-events.block-timeout-ms")), TimeUnit.MILLISECONDS);
+
         // Set up clj-lib directory for local Clojure library files
         cljLibPath = scriptsPath.resolve("clj-lib");
         if (Files.notExists(cljLibPath)) {
@@ -116,14 +145,23 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
 
         try {
             Thread.currentThread().setContextClassLoader(pluginCl);
+            long runtimeStart = System.nanoTime();
             RT.init();
 
-            // Load Clojure & bukkitclj runtime
+            // Load Clojure & bukkitclj runtime. API namespaces are loaded once a script requires them
             RT.load("clojure/core");
-            RT.load("bukkitclj/api");
             RT.load("bukkitclj/internal");
+            logger().info("Initialized Clojure runtime in {}ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runtimeStart));
 
             Var.pushThreadBindings(RT.map(Compiler.LOADER, clojureClassLoader));
+
+            sharedLibraries = new SharedLibraries(cljLibPath, clojureClassLoader);
+
+            // Set up compiled script cache
+            String clojureVersion = (String) Clojure.var("clojure.core", "clojure-version").invoke();
+            scriptCache = new ScriptCache(getDataFolder().toPath().resolve("cache"), clojureVersion,
+                    ScriptCache.getPluginFingerprint(getFile().toPath(), getPluginMeta().getVersion()));
         } catch (Exception e) {
             logger().error("Failed to initialize Clojure runtime", e);
             setEnabled(false);
@@ -133,37 +171,95 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
             Thread.currentThread().setContextClassLoader(oldTCL);
         }
 
+        // Set up script dependency resolution
+        Map<String, String> repositories = new LinkedHashMap<>();
+        ConfigurationSection repositoriesSection = getConfig().getConfigurationSection("dependencies.repositories");
+        if (repositoriesSection != null) {
+            for (String name : repositoriesSection.getKeys(false)) {
+                repositories.put(name, repositoriesSection.getString(name));
+            }
+        }
+        dependencyResolver = new DependencyResolver(getDataFolder().toPath().resolve("deps"), repositories,
+                getConfig().getBoolean("dependencies.offline"));
+
+        MainThreadDispatcher.start(this);
+        ScriptScheduler.start(this, (long) (getConfig().getDouble("scheduler.tick-budget-ms") * 1_000_000L));
+
         // Register commands
-        registerCommand("bukkitclj", new BukkitCljCommand(this));
+        command = new BukkitCljCommand(this);
+        registerCommand("bukkitclj", command);
+        ClojureCommandFn.setCompletionCache(new CompletionCache(getConfig().getLong("tab-complete.cache-ttl-ms"),
+                getConfig().getInt("tab-complete.cache-size")));
 
         // Load scripts
         logger().info("Loading scripts...");
         long startTime = System.nanoTime();
-        loadingLock.writeLock().lock();
         try (Stream<Path> files = Files.list(scriptsPath)) {
-            files.filter(it -> it.getFileName().toString().endsWith(".clj")).forEach(scriptFile -> {
-                try {
-                    loadScript(scriptFile.getFileName().toString());
-                } catch (Exception e) {
-                    logger().error("Failed to load {}", scriptFile, e);
+            List<Path> scriptFiles = files
+                    .filter(it -> it.getFileName().toString().endsWith(".clj"))
+                    .collect(Collectors.toList());
+
+            int threads = 1;
+            if (getConfig().getBoolean("loading.parallel")) {
+                threads = getConfig().getInt("loading.threads");
+                if (threads < 1) {
+                    threads = Runtime.getRuntime().availableProcessors();
                 }
-            });
+            }
+
+            for (ScriptInfo info : new ScriptLoader(this, threads).load(scriptFiles)) {
+                scripts.add(info);
+            }
         } catch (IOException e) {
             logger().error("Failed to list files in {}", scriptsPath, e);
             setEnabled(false);
             return;
-        } finally {
-            loadingLock.writeLock().unlock();
         }
         long endTime = System.nanoTime();
         logger().info("Loaded {} script(s) in {}ms!", scripts.size(), TimeUnit.NANOSECONDS.toMillis(endTime - startTime));
+        reportLoad("startup", "startup.json", endTime - startTime, scripts.list());
+
+        // Watch scripts for changes
+        if (getConfig().getBoolean("hot-reload.enabled")) {
+            scriptReloader = new ScriptReloader(this, scripts, getConfig().getLong("hot-reload.debounce-ms"));
+        }
+        try {
+            ScriptReloader reloader = scriptReloader;
+            scriptWatcher = new ScriptWatcher(scriptsPath, name -> {
+                if (reloader != null) {
+                    reloader.scriptChanged(name);
+                }
+            }, command::invalidateScriptFiles);
+            scriptWatcher.start();
+            command.setCacheScriptFiles(true);
+        } catch (IOException e) {
+            logger().error("Failed to watch {} for changes", scriptsPath, e);
+        }
     }
 
     @Override
     public void onDisable() {
-        for (ScriptInfo script : scripts.values()) {
+        if (scriptWatcher != null) {
+            scriptWatcher.close();
+            scriptWatcher = null;
+        }
+        if (scriptReloader != null) {
+            scriptReloader.close();
+            scriptReloader = null;
+        }
+
+        for (ScriptInfo script : scripts.list()) {
             script.unload(false);
         }
+        EventDispatcher.reset();
+        AsyncEventExecutor.shutdown(5, TimeUnit.SECONDS);
+        MainThreadDispatcher.stop();
+        ScriptScheduler.stop();
+
+        // Write data saved by scripts
+        if (dataStore != null) {
+            dataStore.close();
+        }
     }
 
     @Override
@@ -176,12 +272,7 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
      */
     @Override
     public ScriptInfo getScript(String name) {
-        try {
-            loadingLock.readLock().lock();
-            return scripts.get(name);
-        } finally {
-            loadingLock.readLock().unlock();
-        }
+        return scripts.get(name);
     }
 
     /**
@@ -189,8 +280,16 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
      */
     @Override
     public ScriptInfo loadScript(String name) {
+        return loadScript(name, "load");
+    }
+
+    /*
+     * Loads a script, writing its load report under given kind
+     */
+    private ScriptInfo loadScript(String name, String reportKind) {
+        ReentrantLock lock = scripts.getLock(name);
+        lock.lock();
         try {
-            loadingLock.writeLock().lock();
             if (getScript(name) != null) {
                 throw new IllegalArgumentException("Given script is already loaded!");
             }
@@ -198,8 +297,10 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
             Path scriptPath = scriptsPath.resolve(name);
             if (Files.exists(scriptPath)) {
                 try {
+                    long startTime = System.nanoTime();
                     ScriptInfo info = loadScriptFromFile(scriptPath);
-                    scripts.put(info.getScriptName(), info);
+                    scripts.add(info);
+                    reportLoad(reportKind, reportKind + "-" + name + ".json", System.nanoTime() - startTime, List.of(info));
                     return info;
                 } catch (Compiler.CompilerException e) {
                     throw new RuntimeException("Failed to compile " + scriptPath.getFileName(), e);
@@ -209,7 +310,7 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
             }
             return null;
         } finally {
-            loadingLock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -218,16 +319,35 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
      */
     @Override
     public void unloadScript(ScriptInfo script) {
+        ReentrantLock lock = scripts.getLock(script.getScriptName());
+        lock.lock();
         try {
-            loadingLock.writeLock().lock();
-            if (scripts.remove(script.getScriptName()) != script) {
+            if (!scripts.remove(script)) {
                 throw new IllegalArgumentException("Given script is not loaded!");
             }
 
             script.unload(true);
+
+            // Drop the namespace and cached classes, so nothing keeps script classloader alive. Namespaces
+            // required by other scripts are kept, as their compiled code holds on to the vars
+            if (!isRequiredByLoadedScript(script.getNamespace())) {
+                RT.var("bukkitclj.internal", "unload-libs").invoke(RT.vector(Symbol.intern(script.getNamespace())));
+                scriptCacheKeys.remove(script.getNamespace());
+            }
+            NamedDynamicClassLoader.purgeClassCache(script.getClassLoader(), null);
+            leakDetector.track(script);
         } finally {
-            loadingLock.writeLock().unlock();
+            lock.unlock();
+        }
+    }
+
+    private boolean isRequiredByLoadedScript(String namespace) {
+        for (ScriptInfo loaded : scripts.list()) {
+            if (loaded.getRequires().contains(namespace)) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
@@ -235,18 +355,18 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
      */
     @Override
     public void reloadScript(String name) {
-        try {
-            loadingLock.writeLock().lock();
-
+        ReentrantLock lock = scripts.getLock(name);
+        lock.lock();
+        try (RegistrationBatch batch = RegistrationBatch.begin()) {
             ScriptInfo info = scripts.get(name);
             if (info == null) {
                 throw new IllegalArgumentException("Given script is not loaded!");
             }
 
             unloadScript(info);
-            loadScript(name);
+            loadScript(name, "reload");
         } finally {
-            loadingLock.writeLock().unlock();
+            lock.unlock();
         }
     }
 
@@ -255,32 +375,109 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
      */
     @Override
     public List<ScriptInfo> listScripts() {
-        try {
-            loadingLock.readLock().lock();
-            return Collections.unmodifiableList(new ArrayList<>(scripts.values()));
-        } finally {
-            loadingLock.readLock().unlock();
-        }
+        return scripts.list();
     }
 
     private ScriptInfo loadScriptFromFile(Path scriptFile) throws Exception {
-        String ns = ScriptHelper.getNamespace(scriptFile);
-        ScriptInfo info = currentScript = new ScriptInfo(ns, scriptFile);
+        ScriptInfo info = compileScript(ScriptSource.read(scriptFile));
+        enableScript(info);
+        return info;
+    }
 
-        try (ScriptHelper.ContextClassloaderWrapper c = ScriptHelper.withNewDynClassloader(info)) {
-            try (Reader reader = Files.newBufferedReader(scriptFile)) {
-                // Compile script and load it
-                Compiler.load(reader, scriptFile.toString(), scriptFile.getFileName().toString());
+    /*
+     * Compiles the script, or loads it from compiled script cache when the script has not changed.
+     * Does not touch the server, so it is safe to call off the main thread.
+     */
+    ScriptInfo compileScript(ScriptSource source) throws Exception {
+        String scriptName = source.getScriptName();
+        resolveDependencies(source);
+
+        String cacheKey = getCacheKey(source);
+        Path cacheDirectory = scriptCache.getCacheDirectory(scriptName, cacheKey);
+
+        if (scriptCache.isCached(cacheDirectory)) {
+            try {
+                return defineScript(source, cacheKey, cacheDirectory, false);
+            } catch (Exception | LinkageError e) {
+                logger().warn("Failed to load {} from compiled script cache, recompiling", scriptName, e);
+                scriptCache.invalidate(cacheDirectory);
             }
+        }
 
-            // Set classloader
-            currentScript.setClassLoader((DynamicClassLoader) c.getClassLoader());
+        return defineScript(source, cacheKey, cacheDirectory, true);
+    }
 
+    /*
+     * Returns the key of script's compiled classes. Macro expansions and constants from required clj-lib
+     * namespaces and scripts get compiled into the script, so their sources are covered along with its own.
+     * Required scripts are covered through their own cache keys.
+     */
+    private String getCacheKey(ScriptSource source) throws IOException {
+        MessageDigest digest = ScriptCache.sha256();
+        digest.update(source.getDigest().getBytes(StandardCharsets.UTF_8));
+        digest.update(sharedLibraries.getSourceDigest(source.getRequires()).getBytes(StandardCharsets.UTF_8));
+        for (String namespace : new TreeSet<>(source.getRequires())) {
+            String requiredKey = scriptCacheKeys.get(namespace);
+            if (requiredKey != null) {
+                digest.update((namespace + '\0' + requiredKey + '\0').getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return ScriptCache.toHex(digest.digest());
+    }
+
+    /*
+     * Makes scripts requiring this one get compiled against its current version
+     */
+    void rememberCacheKey(ScriptInfo info) {
+        scriptCacheKeys.put(info.getNamespace(), info.getCacheKey());
+    }
+
+    /*
+     * Resolves Maven dependencies declared by the script. Resolution results are remembered,
+     * so calling this again for the same source is cheap.
+     */
+    void resolveDependencies(ScriptSource source) throws IOException {
+        if (source.getDependencies() != null) {
+            dependencyResolver.require(source.getDependencies(), source.getScriptName());
+        }
+    }
+
+    /*
+     * Registers script's event handlers, commands and permissions, and runs its script-init
+     */
+    void enableScript(ScriptInfo info) {
+        beginLoading(info);
+        try {
             // Register all gathered event handlers, commands and permissions
-            currentScript.load();
+            long start = System.nanoTime();
+            try {
+                info.load();
+            } catch (RuntimeException e) {
+                info.runUnloadHooks();
+                throw e;
+            }
+            info.getLoadProfile().recordRegister(System.nanoTime() - start);
 
             // Initialize script if init method is present
-            IFn scriptInitFunc = Clojure.var(ns, "script-init");
+            try {
+                initializeScript(info);
+            } catch (RuntimeException e) {
+                info.unregister();
+                info.runUnloadHooks();
+                throw e;
+            }
+        } finally {
+            loadingScripts.remove(info.getNamespace(), info);
+        }
+
+        // Drop cached classes of previous versions
+        pruneCache(info);
+    }
+
+    void initializeScript(ScriptInfo info) {
+        long start = System.nanoTime();
+        try (ScriptHelper.ContextClassloaderWrapper c = ScriptHelper.withScriptClassloader(info)) {
+            IFn scriptInitFunc = Clojure.var(info.getNamespace(), "script-init");
             try {
                 scriptInitFunc.invoke();
             } catch (Exception e) {
@@ -288,12 +485,113 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
                     throw new RuntimeException(e);
                 }
             }
+        } finally {
+            info.getLoadProfile().recordInit(System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Logs per-script load time breakdown and writes it into the reports directory
+     */
+    void reportLoad(String kind, String fileName, long wallNanos, List<ScriptInfo> loaded) {
+        LoadReport report = new LoadReport(kind, getPluginMeta().getVersion(), wallNanos, loaded);
+        report.log(logger());
+        try {
+            report.write(getDataFolder().toPath().resolve("reports").resolve(fileName));
+        } catch (IOException e) {
+            logger().warn("Failed to write load report {}", fileName, e);
+        }
+    }
+
+    void pruneCache(ScriptInfo info) {
+        scriptCache.prune(info.getScriptName(), scriptCache.getCacheDirectory(info.getScriptName(), info.getCacheKey()));
+    }
+
+    /*
+     * Defines script classes in a new script classloader, either by compiling the source
+     * or by loading already compiled classes from the cache directory
+     */
+    private ScriptInfo defineScript(ScriptSource source, String cacheKey, Path cacheDirectory, boolean compile) throws Exception {
+        ScriptInfo info = new ScriptInfo(source.getNamespace(), source.getPath());
+
+        beginLoading(info);
+        try (ScriptHelper.ContextClassloaderWrapper c = ScriptHelper.withNewDynClassloader(info)) {
+            requireNamespaces(info, source.getRequires());
+
+            NamedDynamicClassLoader classLoader = (NamedDynamicClassLoader) c.getClassLoader();
+            LoggerHelper.intern(Namespace.findOrCreate(Symbol.intern(source.getNamespace())));
+            long start = System.nanoTime();
+            if (compile) {
+                // Compile script and load it
+                try (Reader reader = source.newReader()) {
+                    scriptCache.compile(cacheDirectory, reader, source.getNamespace(), source.getScriptName());
+                }
+            } else {
+                // Load precompiled script
+                classLoader.addURL(cacheDirectory.toUri().toURL());
+                Class.forName(ScriptCache.getInitClassName(source.getNamespace()), true, classLoader);
+            }
+
+            info.getLoadProfile().recordSource(source);
+            long compileNanos = System.nanoTime() - start;
+            if (compile) {
+                info.getLoadProfile().recordCompile(compileNanos, classLoader);
+            } else {
+                info.getLoadProfile().recordCachedCompile(compileNanos, cacheDirectory);
+            }
+
+            // Set classloader
+            info.setClassLoader(classLoader);
+            info.setSourceDigest(source.getDigest());
+            info.setRequires(source.getRequires());
+            info.setCacheKey(cacheKey);
+            rememberCacheKey(info);
+        } catch (Exception | LinkageError e) {
+            info.runUnloadHooks();
+            throw e;
+        } finally {
+            loadingScripts.remove(info.getNamespace(), info);
         }
 
-        currentScript = null;
         return info;
     }
 
+    /*
+     * Loads namespaces required by the script before defining it, so its ns form finds them already loaded.
+     * Clojure lib loading is not thread-safe, so scripts compiled in parallel take turns here.
+     */
+    private void requireNamespaces(ScriptInfo info, Set<String> requires) {
+        synchronized (requireLock) {
+            // API namespaces, and clj-lib namespaces into shared library classloader first
+            ApiNamespaces.require(requires);
+            sharedLibraries.acquire(info, requires);
+
+            // Rest come from the plugin jar or dependency jars, and other scripts are loaded already. Compiling
+            // files is turned off, so these do not get compiled into the script's cache directory
+            IPersistentSet loaded = (IPersistentSet) RT.var("clojure.core", "loaded-libs").invoke();
+            Var.pushThreadBindings(RT.mapUniqueKeys(
+                    Compiler.LOADER, clojureClassLoader,
+                    Compiler.COMPILE_FILES, Boolean.FALSE
+            ));
+            try {
+                for (String namespace : requires) {
+                    Symbol name = Symbol.intern(namespace);
+                    if (!loaded.contains(name)) {
+                        RT.var("clojure.core", "require").invoke(name);
+                    }
+                }
+            } finally {
+                Var.popThreadBindings();
+            }
+        }
+    }
+
+    static void beginLoading(ScriptInfo info) {
+        if (loadingScripts.putIfAbsent(info.getNamespace(), info) != null) {
+            throw new IllegalStateException("Namespace " + info.getNamespace() + " is already being loaded");
+        }
+    }
+
     private void registerCommand(String name, CommandExecutor executor) {
         PluginCommand command = getCommand(name);
         if (command == null) {
@@ -306,6 +604,10 @@ public final class BukkitClj extends JavaPlugin implements ScriptManager {
         }
     }
 
+    public ClassLoaderLeakDetector getLeakDetector() {
+        return leakDetector;
+    }
+
     public static BukkitClj getInstance() {
         return JavaPlugin.getPlugin(BukkitClj.class);
     }
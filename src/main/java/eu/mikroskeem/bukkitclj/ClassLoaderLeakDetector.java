@@ -0,0 +1,215 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.DynamicClassLoader;
+import clojure.lang.Namespace;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+import eu.mikroskeem.bukkitclj.wrappers.ClojureCommandFn;
+import eu.mikroskeem.bukkitclj.wrappers.ClojureListenerFn;
+import eu.mikroskeem.bukkitclj.wrappers.EventDispatcher;
+import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.event.HandlerList;
+import org.bukkit.plugin.RegisteredListener;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of classloaders of unloaded scripts to find the ones which never get garbage collected.
+ *
+ * @author Mark Vainomaa
+ */
+public final class ClassLoaderLeakDetector {
+    private final List<UnloadedScript> unloaded = new ArrayList<>();
+
+    /*
+     * Starts tracking classloader of an unloaded or replaced script
+     */
+    synchronized void track(ScriptInfo script) {
+        DynamicClassLoader classLoader = script.getClassLoader();
+        if (classLoader == null) {
+            return;
+        }
+
+        // Load profile counts classes loaded from compiled script cache as well
+        ScriptLoadProfile profile = script.getLoadProfile();
+        unloaded.add(new UnloadedScript(script.getScriptName(), script.getNamespace(), classLoader,
+                profile.getDefinedClasses(), profile.getDefinedBytes()));
+    }
+
+    /**
+     * Runs garbage collection and returns scripts whose classloaders are still alive, along with
+     * whatever could be found still referencing them. Should be called on the main thread.
+     *
+     * @return Leaked script classloaders
+     */
+    public synchronized List<Leak> findLeaks() {
+        System.gc();
+        unloaded.removeIf(it -> it.classLoader.get() == null);
+
+        List<Leak> leaks = new ArrayList<>();
+        for (UnloadedScript script : unloaded) {
+            ClassLoader classLoader = script.classLoader.get();
+            if (classLoader != null) {
+                leaks.add(new Leak(script, findRetainers(script.namespace, classLoader)));
+            }
+        }
+        return leaks;
+    }
+
+    private static List<String> findRetainers(String namespace, ClassLoader classLoader) {
+        Set<String> retainers = new LinkedHashSet<>();
+
+        // Threads started by the script or running with its classloader
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getContextClassLoader() == classLoader) {
+                retainers.add("thread '" + thread.getName() + "' has it as context classloader");
+            } else if (isFrom(thread, classLoader)) {
+                retainers.add("thread '" + thread.getName() + "' is defined by the script");
+            }
+        }
+
+        // Event handlers left registered
+        for (HandlerList handlerList : HandlerList.getHandlerLists()) {
+            for (RegisteredListener registered : handlerList.getRegisteredListeners()) {
+                if (registered.getListener() instanceof EventDispatcher) {
+                    for (ClojureListenerFn listener : ((EventDispatcher) registered.getListener()).getListeners()) {
+                        if (isFrom(listener.getHandler(), classLoader) || isFrom(listener.getSnapshot(), classLoader)) {
+                            retainers.add("listener for " + listener.getEventClass().getSimpleName() + " registered by " + listener.getNamespace());
+                        }
+                    }
+                } else if (isFrom(registered.getListener(), classLoader) || isFrom(registered.getExecutor(), classLoader)) {
+                    retainers.add("listener " + registered.getListener().getClass().getName() + " of " + registered.getPlugin().getName());
+                }
+            }
+        }
+
+        // Commands left registered
+        for (Map.Entry<String, Command> entry : Bukkit.getCommandMap().getKnownCommands().entrySet()) {
+            Command command = entry.getValue();
+            if (command instanceof ClojureCommandFn) {
+                ClojureCommandFn clojureCommand = (ClojureCommandFn) command;
+                if (isFrom(clojureCommand.getHandler(), classLoader) || isFrom(clojureCommand.getTabcompleteHandler(), classLoader)) {
+                    retainers.add("command /" + entry.getKey());
+                }
+            } else if (isFrom(command, classLoader)) {
+                retainers.add("command /" + entry.getKey());
+            }
+        }
+
+        // Namespace is removed on unload and reused by reloaded versions, so script classes in its vars are
+        // left behind by something like defonce or a var not redefined by the new version
+        Namespace ns = Namespace.find(Symbol.intern(namespace));
+        if (ns != null) {
+            for (Object o : ns.getMappings()) {
+                Object value = ((Map.Entry<?, ?>) o).getValue();
+                if (value instanceof Var && ((Var) value).ns == ns && ((Var) value).hasRoot()
+                        && isFrom(((Var) value).getRawRoot(), classLoader)) {
+                    retainers.add("vars of namespace " + namespace);
+                    break;
+                }
+            }
+        }
+
+        return new ArrayList<>(retainers);
+    }
+
+    private static boolean isFrom(Object object, ClassLoader classLoader) {
+        return object != null && object.getClass().getClassLoader() == classLoader;
+    }
+
+    private static final class UnloadedScript {
+        private final String scriptName;
+        private final String namespace;
+        private final WeakReference<ClassLoader> classLoader;
+        private final int classes;
+        private final long classBytes;
+        private final long unloadedAt;
+
+        private UnloadedScript(String scriptName, String namespace, ClassLoader classLoader, int classes, long classBytes) {
+            this.scriptName = scriptName;
+            this.namespace = namespace;
+            this.classLoader = new WeakReference<>(classLoader);
+            this.classes = classes;
+            this.classBytes = classBytes;
+            this.unloadedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Classloader of an unloaded script which is still alive
+     */
+    public static final class Leak {
+        private final UnloadedScript script;
+        private final List<String> retainers;
+
+        private Leak(UnloadedScript script, List<String> retainers) {
+            this.script = script;
+            this.retainers = Collections.unmodifiableList(retainers);
+        }
+
+        public String getScriptName() {
+            return script.scriptName;
+        }
+
+        public String getNamespace() {
+            return script.namespace;
+        }
+
+        /**
+         * @return Amount of classes defined by the classloader
+         */
+        public int getClasses() {
+            return script.classes;
+        }
+
+        /**
+         * @return Size of class files defined by the classloader, approximating its metaspace usage
+         */
+        public long getClassBytes() {
+            return script.classBytes;
+        }
+
+        public long getUnloadedAt() {
+            return script.unloadedAt;
+        }
+
+        /**
+         * @return Descriptions of found references to the classloader. Might be empty when nothing could be found
+         */
+        public List<String> getRetainers() {
+            return retainers;
+        }
+    }
+}
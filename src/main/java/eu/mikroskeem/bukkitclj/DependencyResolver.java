@@ -0,0 +1,259 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.PersistentArrayMap;
+import clojure.lang.RT;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves Maven dependencies declared by scripts.
+ *
+ * Artifacts are resolved into a local repository inside the plugin data folder, and resolved jars are
+ * copied into a content-addressed store named after their SHA-256 hash. Resolution results are remembered
+ * per coordinate set both in memory and on disk, so scripts with unchanged dependencies do not go
+ * through Maven resolution again. Coordinates with SNAPSHOT or range versions are not remembered on disk,
+ * so they are resolved again after a restart.
+ *
+ * Jars are added to the root Clojure classloader once and are shared by all scripts. They stay there
+ * until the server restarts, so a script depending on another version of an already loaded artifact
+ * fails to load instead of silently getting the loaded version.
+ *
+ * @author Mark Vainomaa
+ */
+final class DependencyResolver {
+    private final Path localRepositoryPath;
+    private final Path jarsPath;
+    private final Path resolvedPath;
+    private final IPersistentMap repositories;
+    private final boolean offline;
+    private final Map<String, List<Artifact>> resolved = new ConcurrentHashMap<>(); // Coordinates key -> artifacts
+    private final Map<String, Artifact> loaded = new HashMap<>(); // group/artifact -> artifact added to classloader
+    private final Map<String, String> loadedBy = new HashMap<>(); // group/artifact -> script which added it
+
+    DependencyResolver(Path dependenciesPath, Map<String, String> repositories, boolean offline) {
+        this.localRepositoryPath = dependenciesPath.resolve("repository");
+        this.jarsPath = dependenciesPath.resolve("jars");
+        this.resolvedPath = dependenciesPath.resolve("resolved");
+        this.repositories = PersistentArrayMap.create(repositories);
+        this.offline = offline;
+    }
+
+    /*
+     * Resolves given coordinates and makes them available to scripts
+     */
+    void require(Object coordinates, String scriptName) throws IOException {
+        List<Artifact> artifacts = resolve(coordinates, scriptName);
+        synchronized (loaded) {
+            // Check everything first, so that conflicting dependencies are not added partially
+            for (Artifact artifact : artifacts) {
+                Artifact previous = loaded.get(artifact.id);
+                if (previous != null && !previous.version.equals(artifact.version)) {
+                    throw new IOException(scriptName + " depends on " + artifact.id + " " + artifact.version
+                            + ", but version " + previous.version + " required by " + loadedBy.get(artifact.id)
+                            + " is already loaded. Loaded dependencies are replaced only on restart");
+                }
+            }
+
+            for (Artifact artifact : artifacts) {
+                if (loaded.putIfAbsent(artifact.id, artifact) == null) {
+                    loadedBy.put(artifact.id, scriptName);
+                    BukkitClj.clojureClassLoader.addURL(artifact.jar.toUri().toURL());
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns content-addressed artifacts for given coordinates, resolving them only if they are not known yet
+     */
+    List<Artifact> resolve(Object coordinates, String scriptName) throws IOException {
+        String key = getKey(coordinates);
+        List<Artifact> artifacts = resolved.get(key);
+        if (artifacts != null) {
+            return artifacts;
+        }
+
+        synchronized (this) {
+            artifacts = resolved.get(key);
+            if (artifacts == null) {
+                boolean remember = !hasDynamicVersion(coordinates);
+                artifacts = remember ? readResolved(key) : null;
+                if (artifacts == null) {
+                    artifacts = resolveArtifacts(coordinates, scriptName);
+                    if (remember && artifacts.stream().noneMatch(it -> isDynamicVersion(it.version))) {
+                        writeResolved(key, artifacts);
+                    }
+                }
+                resolved.put(key, artifacts);
+            }
+        }
+        return artifacts;
+    }
+
+    /*
+     * Reads remembered resolution result, returns null if there is none, it is not readable or some of the jars are gone
+     */
+    private List<Artifact> readResolved(String key) throws IOException {
+        Path resolvedFile = resolvedPath.resolve(key + ".txt");
+        if (Files.notExists(resolvedFile)) {
+            return null;
+        }
+
+        List<Artifact> artifacts = new ArrayList<>();
+        for (String line : Files.readAllLines(resolvedFile, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            String[] parts = line.split(" ");
+            if (parts.length != 3) {
+                return null;
+            }
+
+            Path jar = jarsPath.resolve(parts[2]);
+            if (Files.notExists(jar)) {
+                return null;
+            }
+            artifacts.add(new Artifact(parts[0], parts[1], jar));
+        }
+        return Collections.unmodifiableList(artifacts);
+    }
+
+    private void writeResolved(String key, List<Artifact> artifacts) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (Artifact artifact : artifacts) {
+            content.append(artifact.id).append(' ').append(artifact.version).append(' ')
+                    .append(artifact.jar.getFileName()).append('\n');
+        }
+
+        Files.createDirectories(resolvedPath);
+        Path tempFile = Files.createTempFile(resolvedPath, ".resolved-", ".tmp");
+        Files.writeString(tempFile, content, StandardCharsets.UTF_8);
+        Files.move(tempFile, resolvedPath.resolve(key + ".txt"), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Artifact> resolveArtifacts(Object coordinates, String scriptName) throws IOException {
+        BukkitClj.logger().info("Resolving dependencies of {}{}", scriptName, offline ? " from local repository" : "");
+        Object resolvedArtifacts;
+        try {
+            resolvedArtifacts = RT.var("bukkitclj.internal", "resolve-dependency-artifacts")
+                    .invoke(coordinates, localRepositoryPath.toString(), repositories, offline);
+        } catch (Exception e) {
+            if (offline) {
+                throw new IOException("Dependencies of " + scriptName + " are not available offline: " + RT.printString(coordinates), e);
+            }
+            throw new IOException("Failed to resolve dependencies of " + scriptName, e);
+        }
+
+        Files.createDirectories(jarsPath);
+        List<Artifact> artifacts = new ArrayList<>();
+        for (ISeq seq = RT.seq(resolvedArtifacts); seq != null; seq = seq.next()) {
+            Object artifact = seq.first();
+            File file = (File) RT.nth(artifact, 2);
+            if (file.getName().endsWith(".jar")) {
+                artifacts.add(new Artifact((String) RT.nth(artifact, 0), (String) RT.nth(artifact, 1), store(file.toPath())));
+            }
+        }
+        return Collections.unmodifiableList(artifacts);
+    }
+
+    /*
+     * Returns whether some of the declared coordinates may resolve differently over time
+     */
+    private static boolean hasDynamicVersion(Object coordinates) {
+        for (ISeq seq = RT.seq(coordinates); seq != null; seq = seq.next()) {
+            if (isDynamicVersion(String.valueOf(RT.nth(seq.first(), 1, null)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDynamicVersion(String version) {
+        return version.endsWith("SNAPSHOT") || version.startsWith("[") || version.startsWith("(")
+                || version.equals("LATEST") || version.equals("RELEASE");
+    }
+
+    /*
+     * Copies the jar into the content-addressed store, unless it is there already
+     */
+    private Path store(Path artifact) throws IOException {
+        MessageDigest digest = ScriptCache.sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(artifact), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+
+        Path jar = jarsPath.resolve(ScriptCache.toHex(digest.digest()) + ".jar");
+        if (Files.notExists(jar)) {
+            Path tempFile = Files.createTempFile(jarsPath, ".jar-", ".tmp");
+            Files.copy(artifact, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile, jar, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return jar;
+    }
+
+    static final class Artifact {
+        private final String id; // group/artifact
+        private final String version;
+        private final Path jar;
+
+        private Artifact(String id, String version, Path jar) {
+            this.id = id;
+            this.version = version;
+            this.jar = jar;
+        }
+    }
+
+    /*
+     * Returns the key of coordinate set, which includes repositories as they affect the result
+     */
+    private String getKey(Object coordinates) {
+        MessageDigest digest = ScriptCache.sha256();
+        digest.update(RT.printString(coordinates).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(RT.printString(repositories).getBytes(StandardCharsets.UTF_8));
+        return ScriptCache.toHex(digest.digest());
+    }
+}
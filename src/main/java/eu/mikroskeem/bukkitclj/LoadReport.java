@@ -0,0 +1,122 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-script breakdown of a startup or reload, written as JSON and logged as a table
+ * sorted by total load time.
+ *
+ * @author Mark Vainomaa
+ */
+final class LoadReport {
+    private final String kind;
+    private final String pluginVersion;
+    private final long wallNanos;
+    private final List<ScriptLoadProfile> profiles = new ArrayList<>();
+
+    LoadReport(String kind, String pluginVersion, long wallNanos, List<ScriptInfo> scripts) {
+        this.kind = kind;
+        this.pluginVersion = pluginVersion;
+        this.wallNanos = wallNanos;
+        for (ScriptInfo script : scripts) {
+            profiles.add(script.getLoadProfile());
+        }
+        profiles.sort(Comparator.comparingLong(ScriptLoadProfile::getTotalNanos).reversed());
+    }
+
+    void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+             JsonWriter json = new JsonWriter(writer)) {
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("kind").value(kind);
+            json.name("plugin-version").value(pluginVersion);
+            json.name("timestamp").value(Instant.now().toString());
+            json.name("wall-ms").value(toMillis(wallNanos));
+            json.name("scripts").beginArray();
+            for (ScriptLoadProfile profile : profiles) {
+                json.beginObject();
+                json.name("script").value(profile.getScriptName());
+                json.name("total-ms").value(toMillis(profile.getTotalNanos()));
+                json.name("read-ms").value(toMillis(profile.getReadNanos()));
+                json.name("ns-ms").value(toMillis(profile.getParseNanos()));
+                json.name("compile-ms").value(toMillis(profile.getCompileNanos()));
+                json.name("cached").value(profile.isCached());
+                json.name("classes").value(profile.getDefinedClasses());
+                json.name("class-bytes").value(profile.getDefinedBytes());
+                json.name("register-ms").value(toMillis(profile.getRegisterNanos()));
+                json.name("init-ms").value(toMillis(profile.getInitNanos()));
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void log(Logger logger) {
+        String format = "%-32s %9s %8s %8s %9s %9s %8s %7s %10s";
+        logger.info(String.format(format, "Script", "Total", "Read", "Ns", "Compile", "Register", "Init", "Classes", "Bytes"));
+        for (ScriptLoadProfile profile : profiles) {
+            logger.info(String.format(format,
+                    profile.getScriptName(),
+                    formatMillis(profile.getTotalNanos()),
+                    formatMillis(profile.getReadNanos()),
+                    formatMillis(profile.getParseNanos()),
+                    formatMillis(profile.getCompileNanos()) + (profile.isCached() ? "*" : ""),
+                    formatMillis(profile.getRegisterNanos()),
+                    formatMillis(profile.getInitNanos()),
+                    profile.getDefinedClasses(),
+                    profile.getDefinedBytes()));
+        }
+        logger.info("* loaded from compiled script cache");
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1fms", toMillis(nanos));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs callbacks queued from any thread on the main thread. Queue is drained once per tick,
+ * running callbacks which were queued before the tick started. Callbacks still queued when
+ * the dispatcher stops are not run, their discard actions are run instead.
+ *
+ * @author Mark Vainomaa
+ */
+public final class MainThreadDispatcher {
+    private static final Queue<Callback> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static volatile boolean running;
+    private static BukkitTask task;
+
+    private MainThreadDispatcher() {}
+
+    public static void execute(Runnable callback) {
+        execute(callback, null);
+    }
+
+    /*
+     * Queues a callback. Discard action runs instead of the callback if the dispatcher stops before running it
+     */
+    public static void execute(Runnable callback, Runnable discard) {
+        queue.add(new Callback(callback, discard));
+        queued.incrementAndGet();
+
+        // Dispatcher might have been stopped meanwhile
+        if (!running) {
+            discardAll();
+        }
+    }
+
+    static synchronized void start(Plugin plugin) {
+        running = true;
+        task = Bukkit.getScheduler().runTaskTimer(plugin, MainThreadDispatcher::drain, 0L, 1L);
+    }
+
+    static synchronized void stop() {
+        running = false;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        discardAll();
+    }
+
+    private static void discardAll() {
+        Callback callback;
+        while ((callback = queue.poll()) != null) {
+            queued.decrementAndGet();
+            if (callback.discard == null) {
+                continue;
+            }
+
+            try {
+                callback.discard.run();
+            } catch (Throwable t) {
+                BukkitClj.logger().error("Failed to discard main thread callback {}", callback.callback, t);
+            }
+        }
+    }
+
+    private static void drain() {
+        // Callbacks queued by other callbacks run on the next tick
+        for (int i = queued.get(); i > 0; i--) {
+            Callback callback = queue.poll();
+            if (callback == null) {
+                break;
+            }
+            queued.decrementAndGet();
+
+            try {
+                callback.callback.run();
+            } catch (Throwable t) {
+                BukkitClj.logger().error("Failed to run main thread callback {}", callback.callback, t);
+            }
+        }
+    }
+
+    private static final class Callback {
+        private final Runnable callback;
+        private final Runnable discard;
+
+        private Callback(Runnable callback, Runnable discard) {
+            this.callback = callback;
+            this.discard = discard;
+        }
+    }
+}
@@ -25,21 +25,98 @@
 
 package eu.mikroskeem.bukkitclj;
 
+import clojure.lang.Compiler;
 import clojure.lang.DynamicClassLoader;
 
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * A DynamicClassLoader with a custom name for better debugging.
- * 
+ * A DynamicClassLoader with a custom name for better debugging. Also counts classes
+ * defined by it from compiler output.
+ *
  * @author Mark Vainomaa
  */
 public final class NamedDynamicClassLoader extends DynamicClassLoader {
     private final String name;
+    private final AtomicInteger definedClasses = new AtomicInteger();
+    private final AtomicLong definedBytes = new AtomicLong();
 
     public NamedDynamicClassLoader(ClassLoader parent, String name) {
         super(parent);
         this.name = name;
     }
 
+    public int getDefinedClasses() {
+        return definedClasses.get();
+    }
+
+    public long getDefinedBytes() {
+        return definedBytes.get();
+    }
+
+    @Override
+    public Class defineClass(String name, byte[] bytes, Object srcForm) {
+        Class defined = super.defineClass(name, bytes, srcForm);
+        definedClasses.incrementAndGet();
+        definedBytes.addAndGet(bytes.length);
+        return defined;
+    }
+
+    /*
+     * Removes classes defined by given classloader or its children from Clojure's global class cache,
+     * only the ones belonging to given namespace if it is not null. The cache holds classes through
+     * soft references, which keep unloaded classloaders alive until memory runs low
+     */
+    @SuppressWarnings("unchecked")
+    static void purgeClassCache(ClassLoader classLoader, String namespace) {
+        Map<String, Reference<Class>> classCache;
+        try {
+            Field classCacheField = DynamicClassLoader.class.getDeclaredField("classCache");
+            classCacheField.setAccessible(true);
+            classCache = (Map<String, Reference<Class>>) classCacheField.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            BukkitClj.logger().warn("Failed to access Clojure class cache", e);
+            return;
+        }
+
+        String prefix = namespace != null ? Compiler.munge(namespace) : null;
+        classCache.entrySet().removeIf(entry -> {
+            Class<?> cached = entry.getValue().get();
+            if (cached == null) {
+                return true;
+            }
+            if (prefix != null && !isNamespaceClass(cached.getName(), prefix)) {
+                return false;
+            }
+
+            for (ClassLoader cl = cached.getClassLoader(); cl != null; cl = cl.getParent()) {
+                if (cl == classLoader) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /*
+     * Returns whether class is generated from the namespace with given munged name, e.g. its functions, types or __init class
+     */
+    private static boolean isNamespaceClass(String className, String prefix) {
+        if (!className.startsWith(prefix)) {
+            return false;
+        }
+        if (className.length() == prefix.length()) {
+            return true;
+        }
+
+        char next = className.charAt(prefix.length());
+        return next == '$' || next == '.' || className.startsWith("__init", prefix.length());
+    }
+
     @Override
     public String toString() {
         return this.name != null
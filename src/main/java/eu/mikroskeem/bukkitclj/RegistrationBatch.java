@@ -0,0 +1,72 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+/**
+ * Groups command registrations and unregistrations of one or more scripts, so that the command tree
+ * is sent to online players once per batch instead of after every change. Batches can be nested,
+ * and must be used on the main thread.
+ *
+ * @author Mark Vainomaa
+ */
+final class RegistrationBatch implements AutoCloseable {
+    private static int depth;
+    private static boolean commandsChanged;
+
+    private RegistrationBatch() {}
+
+    static RegistrationBatch begin() {
+        depth++;
+        return new RegistrationBatch();
+    }
+
+    /*
+     * Marks commands as changed, syncing them immediately when no batch is open
+     */
+    static void commandsChanged() {
+        commandsChanged = true;
+        if (depth == 0) {
+            syncCommands();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (--depth == 0 && commandsChanged) {
+            syncCommands();
+        }
+    }
+
+    private static void syncCommands() {
+        commandsChanged = false;
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            player.updateCommands();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.Compiler;
+import clojure.lang.RT;
+import clojure.lang.Var;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache for AOT compiled scripts.
+ *
+ * Compiled classes are stored per script in a directory named after the hash of script's cache key,
+ * Clojure version and BukkitClj build, so changing any of them makes the script compile again.
+ * Cache key covers the script source along with sources of clj-lib namespaces and scripts it requires.
+ * Scripts contain expanded bukkitclj API macros, so the build is identified by the contents of
+ * the plugin jar rather than by its version.
+ *
+ * @author Mark Vainomaa
+ */
+final class ScriptCache {
+    private final Path cachePath;
+    private final byte[] runtimeKey;
+
+    ScriptCache(Path cachePath, String clojureVersion, String pluginFingerprint) {
+        this.cachePath = cachePath;
+        this.runtimeKey = (clojureVersion + '\0' + pluginFingerprint + '\0').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Returns a hash of BukkitClj classes and Clojure sources in the plugin jar. Uses CRCs stored in the
+     * jar directory, so entries do not need to be read. Falls back to the plugin version if the plugin
+     * is not loaded from a jar.
+     */
+    static String getPluginFingerprint(Path pluginJar, String pluginVersion) {
+        if (pluginJar == null || !Files.isRegularFile(pluginJar)) {
+            return pluginVersion;
+        }
+
+        MessageDigest digest = sha256();
+        try (JarFile jar = new JarFile(pluginJar.toFile())) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (name.startsWith("bukkitclj/") || name.startsWith("eu/mikroskeem/bukkitclj/")) {
+                    digest.update(name.getBytes(StandardCharsets.UTF_8));
+                    digest.update(Long.toHexString(entry.getCrc()).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            BukkitClj.logger().warn("Failed to read {}, compiled script cache is keyed by plugin version", pluginJar, e);
+            return pluginVersion;
+        }
+        return toHex(digest.digest());
+    }
+
+    /*
+     * Returns the cache directory for given script cache key
+     */
+    Path getCacheDirectory(String scriptName, String cacheKey) {
+        MessageDigest digest = sha256();
+        digest.update(runtimeKey);
+        digest.update(cacheKey.getBytes(StandardCharsets.UTF_8));
+        return cachePath.resolve(scriptName).resolve(toHex(digest.digest()));
+    }
+
+    boolean isCached(Path cacheDirectory) {
+        return Files.isDirectory(cacheDirectory);
+    }
+
+    /*
+     * Compiles and loads the script while writing generated classes into the cache directory.
+     * Classes are written into a temporary directory first, which is moved into place only after
+     * the whole script compiled successfully.
+     */
+    void compile(Path cacheDirectory, Reader reader, String namespace, String sourceName) throws IOException {
+        Path scriptCachePath = cacheDirectory.getParent();
+        Files.createDirectories(scriptCachePath);
+        Path tempDirectory = Files.createTempDirectory(scriptCachePath, ".compile-");
+        try {
+            Var.pushThreadBindings(RT.mapUniqueKeys(
+                    Compiler.COMPILE_PATH, tempDirectory.toString(),
+                    Compiler.COMPILE_FILES, Boolean.TRUE
+            ));
+            try {
+                Compiler.compile(reader, getSourcePath(namespace), sourceName);
+            } finally {
+                Var.popThreadBindings();
+            }
+
+            try {
+                Files.move(tempDirectory, cacheDirectory, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                BukkitClj.logger().warn("Failed to store compiled {} in cache", sourceName, e);
+            }
+        } finally {
+            delete(tempDirectory);
+        }
+    }
+
+    /*
+     * Removes cached classes of given script, except for the directory given
+     */
+    void prune(String scriptName, Path keep) {
+        Path scriptCachePath = cachePath.resolve(scriptName);
+        if (Files.notExists(scriptCachePath)) {
+            return;
+        }
+
+        try (Stream<Path> entries = Files.list(scriptCachePath)) {
+            entries.filter(it -> !it.equals(keep)).forEach(this::delete);
+        } catch (IOException e) {
+            BukkitClj.logger().warn("Failed to prune compiled script cache in {}", scriptCachePath, e);
+        }
+    }
+
+    void invalidate(Path cacheDirectory) {
+        delete(cacheDirectory);
+    }
+
+    private void delete(Path path) {
+        if (Files.notExists(path)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(it -> {
+                try {
+                    Files.deleteIfExists(it);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (Exception e) {
+            BukkitClj.logger().warn("Failed to delete {}", path, e);
+        }
+    }
+
+    /*
+     * Returns the classpath resource path of namespace source, which is what Clojure uses to name the __init class
+     */
+    static String getSourcePath(String namespace) {
+        return namespace.replace('-', '_').replace('.', '/') + ".clj";
+    }
+
+    static String getInitClassName(String namespace) {
+        return namespace.replace('-', '_') + RT.LOADER_SUFFIX;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.LispReader;
+import clojure.lang.RT;
+import clojure.lang.Var;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous edn data file store.
+ *
+ * Reads are served from memory after the file has been read once. Writes update the
+ * in-memory value immediately and are written to disk by a background thread after
+ * a delay, so repeated writes to the same file are coalesced into one.
+ *
+ * @author Mark Vainomaa
+ */
+public final class ScriptDataStore {
+    private static final Object NIL = new Object(); // Stands for nil, as concurrent maps cannot hold nulls
+
+    private final Map<Path, Object> cache = new ConcurrentHashMap<>(); // File -> latest value
+    private final Map<Path, Object> pending = new ConcurrentHashMap<>(); // File -> value waiting to be written
+    private final ScheduledExecutorService writer;
+    private final long flushDelayMillis;
+
+    ScriptDataStore(long flushDelayMillis) {
+        this.flushDelayMillis = flushDelayMillis;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BukkitClj Data Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Object read(Path file) throws IOException {
+        Object value = cache.get(file);
+        if (value == null) {
+            value = Files.exists(file) ? readFile(file) : null;
+            Object existing = cache.putIfAbsent(file, value == null ? NIL : value);
+            if (existing != null) {
+                value = existing;
+            }
+        }
+        return value == NIL ? null : value;
+    }
+
+    public void write(Path file, Object data) {
+        Object value = data == null ? NIL : data;
+        cache.put(file, value);
+        if (pending.put(file, value) == null) {
+            writer.schedule(() -> flush(file), flushDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Writes all pending data and waits until it is done
+     */
+    public void flush() {
+        try {
+            writer.submit(this::flushPending).get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            BukkitClj.logger().error("Failed to flush script data", e);
+        }
+    }
+
+    void close() {
+        flush();
+        writer.shutdownNow();
+    }
+
+    private void flushPending() {
+        for (Path file : pending.keySet()) {
+            flush(file);
+        }
+    }
+
+    private void flush(Path file) {
+        Object value = pending.remove(file);
+        if (value == null) {
+            return;
+        }
+
+        try {
+            writeFile(file, value == NIL ? null : value);
+        } catch (Exception e) {
+            BukkitClj.logger().error("Failed to write script data to {}", file, e);
+        }
+    }
+
+    private static Object readFile(Path file) throws IOException {
+        Var.pushThreadBindings(RT.map(RT.READEVAL, Boolean.FALSE));
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return LispReader.read(new PushbackReader(reader), false, null, false);
+        } finally {
+            Var.popThreadBindings();
+        }
+    }
+
+    /*
+     * Writes into a temporary file first and moves it over the old file, so a crash
+     * while writing never leaves a truncated data file behind
+     */
+    private static void writeFile(Path file, Object value) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(RT.printString(value));
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -31,7 +31,6 @@ import clojure.lang.IFn;
 import clojure.lang.Keyword;
 import clojure.lang.Namespace;
 import clojure.lang.RT;
-import clojure.lang.Symbol;
 import clojure.lang.Var;
 import eu.mikroskeem.bukkitclj.wrappers.ClojureCommandFn;
 import eu.mikroskeem.bukkitclj.wrappers.ClojureListenerFn;
@@ -42,7 +41,7 @@ import org.bukkit.permissions.PermissionDefault;
 
 import java.io.Closeable;
 import java.io.File;
-import java.nio.file.Path;
+import java.io.IOException;
 import java.util.Locale;
 
 /**
@@ -52,11 +51,12 @@ public final class ScriptHelper {
     private ScriptHelper() {}
 
     /*
-     * Creates an event listener wrapping Clojure function
+     * Creates an event listener wrapping Clojure function, optionally running it off the main thread
      */
     public static void createEventListener(Namespace namespace, Class<? extends Event> eventClass,
-                                           Keyword priorityKeyword, boolean ignoreCancelled, IFn handler) {
-        validateScriptState(namespace, "Can only register listeners at script load");
+                                           Keyword priorityKeyword, boolean ignoreCancelled, boolean async,
+                                           IFn snapshot, Keyword backpressureKeyword, IFn handler) {
+        ScriptInfo script = getLoadingScript(namespace, "Can only register listeners at script load");
         validateArgument(handler, "Function cannot be nil!");
 
         // Convert event priority
@@ -66,9 +66,24 @@ public final class ScriptHelper {
             return;
         }
 
+        // Convert backpressure mode
+        ClojureListenerFn.Backpressure backpressure = null;
+        if (async) {
+            // Bukkit events are not thread safe, so async handlers only get data copied on the main thread
+            validateArgument(snapshot, "Async listeners need a :snapshot function!");
+            backpressure = backpressureKeyword != null
+                    ? enumMatch(backpressureKeyword.getName(), ClojureListenerFn.Backpressure.class)
+                    : ClojureListenerFn.Backpressure.DROP;
+            if (backpressure == null) {
+                BukkitClj.logger().error("Function {} has invalid backpressure mode {}", handler, backpressureKeyword);
+                return;
+            }
+        }
+
         // Register listener
-        ClojureListenerFn executor = new ClojureListenerFn(namespace, handler, eventClass, priority, ignoreCancelled);
-        BukkitClj.currentScript.getListeners().add(executor);
+        ClojureListenerFn executor = new ClojureListenerFn(namespace, handler, eventClass, priority, ignoreCancelled,
+                snapshot, backpressure);
+        script.getListeners().add(executor);
     }
 
     /*
@@ -76,7 +91,7 @@ public final class ScriptHelper {
      */
     public static void createCommand(Namespace namespace, String commandName,
                                      String permission, String[] aliases, IFn handler) {
-        validateScriptState(namespace, "Can only register commands at script load");
+        ScriptInfo script = getLoadingScript(namespace, "Can only register commands at script load");
         validateArgument(commandName, "Command name cannot be nil!");
         validateArgument(handler, "Function cannot be nil!");
 
@@ -84,30 +99,30 @@ public final class ScriptHelper {
         BukkitClj plugin = BukkitClj.getInstance();
         ClojureCommandFn command = new ClojureCommandFn(namespace, commandName, permission, aliases, handler);
         command.register(plugin.getServer().getCommandMap());
-        BukkitClj.currentScript.getCommands().put(commandName, command);
+        script.getCommands().put(commandName, command);
     }
 
-    public static void createCommandCompletion(Namespace namespace, String commandName, IFn handler) {
-        validateScriptState(namespace, "Can only register command completions at script load");
+    public static void createCommandCompletion(Namespace namespace, String commandName, boolean filterPrefix, IFn handler) {
+        ScriptInfo script = getLoadingScript(namespace, "Can only register command completions at script load");
         validateArgument(commandName, "Command name cannot be nil!");
         validateArgument(handler, "Function cannot be nil!");
 
         // Find command and register a completion to it
-        ClojureCommandFn command = BukkitClj.currentScript.getCommands().get(commandName);
+        ClojureCommandFn command = script.getCommands().get(commandName);
         if (command == null) {
             throw new IllegalArgumentException("Command '" + commandName + "' is not registered. Did you " +
                     "define command after defining completion?");
         }
 
         // Set tab complete handler
-        command.setTabcompleteHandler(handler);
+        command.setTabcompleteHandler(handler, filterPrefix);
     }
 
     /*
      * Creates a permission node
      */
     public static void createPermission(Namespace namespace, String name, boolean override, Keyword def) {
-        validateScriptState(namespace, "Can only create permissions at script load");
+        ScriptInfo script = getLoadingScript(namespace, "Can only create permissions at script load");
         validateArgument(name, "Permission name cannot be nil!");
 
         // Convert default
@@ -118,7 +133,7 @@ public final class ScriptHelper {
         }
 
         Permission perm = new Permission(name, permDef);
-        BukkitClj.currentScript.getPermissions().put(perm, override);
+        script.getPermissions().put(perm, override);
     }
 
     /*
@@ -129,12 +144,43 @@ public final class ScriptHelper {
     }
 
     /*
-     * Attempts to fetch script's namespace
+     * Returns script's binary snapshot file by namespace
+     */
+    public static File getScriptSnapshotFile(Namespace namespace) {
+        return BukkitClj.scriptDataPath.resolve(namespace.getName().getName() + ".bin").toFile();
+    }
+
+    /*
+     * Returns contents of an edn data file, cached in memory after the first read
+     */
+    public static Object readData(File file) {
+        try {
+            return BukkitClj.getInstance().dataStore.read(file.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + file, e);
+        }
+    }
+
+    /*
+     * Queues data to be written into an edn data file
+     */
+    public static void writeData(File file, Object data) {
+        BukkitClj.getInstance().dataStore.write(file.toPath(), data);
+    }
+
+    /*
+     * Writes all queued data files
      */
-    static String getNamespace(Path file) {
-        // TODO: failure handling?
-        Symbol ns = (Symbol) RT.var("bukkitclj.internal", "get-file-ns").invoke(file.toString());
-        return ns.getName();
+    public static void flushData() {
+        BukkitClj.getInstance().dataStore.flush();
+    }
+
+    /*
+     * Adds an action to run when script in given namespace gets unloaded
+     */
+    public static void addUnloadHook(Namespace namespace, Runnable hook) {
+        validateArgument(hook, "Function cannot be nil!");
+        getScript(namespace).addUnloadHook(hook);
     }
 
     static ContextClassloaderWrapper withContextClassloader(ClassLoader classloader) {
@@ -143,21 +189,48 @@ public final class ScriptHelper {
 
     static ContextClassloaderWrapper withNewDynClassloader(ScriptInfo info) {
         String name = "ScriptClassLoader[" + info.getScriptName() + " (" + info.getNamespace() + ")]";
-        DynamicClassLoader dynamicClassLoader = new NamedDynamicClassLoader(BukkitClj.clojureClassLoader, name);
+        DynamicClassLoader dynamicClassLoader = new NamedDynamicClassLoader(BukkitClj.getInstance().sharedLibraries.getClassLoader(), name);
         Var.pushThreadBindings(RT.map(Compiler.LOADER, dynamicClassLoader));
         return new ContextClassloaderWrapper(dynamicClassLoader, () -> {
             Var.popThreadBindings();
         });
     }
 
-    private static void validateScriptState(Namespace ns, String unsetScriptMessage) {
-        if (BukkitClj.currentScript == null) {
+    static ContextClassloaderWrapper withScriptClassloader(ScriptInfo info) {
+        DynamicClassLoader classLoader = info.getClassLoader();
+        Var.pushThreadBindings(RT.map(Compiler.LOADER, classLoader));
+        return new ContextClassloaderWrapper(classLoader, () -> {
+            Var.popThreadBindings();
+        });
+    }
+
+    /*
+     * Returns script currently being loaded in given namespace
+     */
+    private static ScriptInfo getLoadingScript(Namespace ns, String unsetScriptMessage) {
+        ScriptInfo script = BukkitClj.loadingScripts.get(ns.getName().getName());
+        if (script == null) {
             throw new IllegalStateException(unsetScriptMessage);
         }
+        return script;
+    }
+
+    /*
+     * Returns script being loaded or already loaded in given namespace
+     */
+    static ScriptInfo getScript(Namespace namespace) {
+        String name = namespace.getName().getName();
+        ScriptInfo script = BukkitClj.loadingScripts.get(name);
+        if (script != null) {
+            return script;
+        }
 
-        if (!BukkitClj.currentScript.getNamespace().equals(ns.getName().getName())) {
-            throw new IllegalStateException("Namespace mismatch!");
+        for (ScriptInfo loaded : BukkitClj.getInstance().listScripts()) {
+            if (loaded.getNamespace().equals(name)) {
+                return loaded;
+            }
         }
+        throw new IllegalStateException("No script is loaded in namespace " + name);
     }
 
     private static void validateArgument(Object argument, String message) {
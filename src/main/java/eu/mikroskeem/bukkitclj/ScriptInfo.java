@@ -28,19 +28,28 @@ package eu.mikroskeem.bukkitclj;
 import clojure.java.api.Clojure;
 import clojure.lang.DynamicClassLoader;
 import clojure.lang.IFn;
+import eu.mikroskeem.bukkitclj.stats.InvocationStats;
 import eu.mikroskeem.bukkitclj.wrappers.ClojureCommandFn;
 import eu.mikroskeem.bukkitclj.wrappers.ClojureListenerFn;
+import eu.mikroskeem.bukkitclj.wrappers.EventDispatcher;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
+import org.bukkit.command.CommandMap;
 import org.bukkit.permissions.Permission;
 import org.bukkit.plugin.PluginManager;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static eu.mikroskeem.bukkitclj.BukkitClj.getInstance;
 
@@ -54,15 +63,23 @@ public final class ScriptInfo {
     private final List<ClojureListenerFn> listeners;
     private final Map<String, ClojureCommandFn> commands;
     private final Map<Permission, Boolean> permissions;
+    private final Map<ClojureCommandFn, List<String>> commandLabels = new HashMap<>(); // Registered command -> labels given to it
     private DynamicClassLoader classLoader;
+    private String sourceDigest;
+    private String cacheKey;
+    private Set<String> requires = Set.of();
+    private final Queue<Runnable> unloadHooks = new ConcurrentLinkedQueue<>();
+    private volatile boolean unloaded;
+    private final ScriptLoadProfile loadProfile;
 
     public ScriptInfo(String namespace, Path scriptPath) {
         this.namespace = namespace;
         this.scriptPath = scriptPath;
         this.scriptName = scriptPath.getFileName().toString();
-        this.listeners = new LinkedList<>();
+        this.listeners = new ArrayList<>();
         this.commands = new LinkedHashMap<>();
         this.permissions = new LinkedHashMap<>();
+        this.loadProfile = new ScriptLoadProfile(scriptName);
     }
 
     public String getNamespace() {
@@ -89,37 +106,133 @@ public final class ScriptInfo {
         return permissions;
     }
 
+    /*
+     * Returns invocation statistics of all listeners and commands of this script. Async listeners
+     * count only snapshotting and queueing events here, their handlers are in {@link #getAsyncStats()}
+     */
+    public List<InvocationStats> getStats() {
+        List<InvocationStats> stats = new ArrayList<>();
+        for (ClojureListenerFn listener : getListeners()) {
+            stats.add(listener.getStats());
+        }
+        for (ClojureCommandFn command : getCommands().values()) {
+            stats.add(command.getStats());
+            stats.add(command.getTabcompleteStats());
+        }
+        return stats;
+    }
+
+    /*
+     * Returns statistics of async listener handlers, which run off the main thread
+     */
+    public List<InvocationStats> getAsyncStats() {
+        List<InvocationStats> stats = new ArrayList<>();
+        for (ClojureListenerFn listener : getListeners()) {
+            if (listener.getAsyncStats() != null) {
+                stats.add(listener.getAsyncStats());
+            }
+        }
+        return stats;
+    }
+
+    /*
+     * Registers listeners, commands and permissions of this script. If anything fails,
+     * already done registrations are undone
+     */
     public void load() {
         if (classLoader == null) {
             throw new IllegalStateException("Classloader is not set!");
         }
 
-        for (ClojureListenerFn listener : getListeners()) {
-            listener.register();
+        try {
+            EventDispatcher.register(getListeners());
+            registerCommands();
+            registerPermissions();
+        } catch (RuntimeException e) {
+            unregister();
+            throw e;
         }
+    }
 
-        for (ClojureCommandFn command : getCommands().values()) {
-            Bukkit.getServer().getCommandMap().register(command.getName(), "bukkitclj" + namespace, command);
+    private void registerCommands() {
+        if (commands.isEmpty()) {
+            return;
+        }
+
+        CommandMap commandMap = Bukkit.getCommandMap();
+        Map<String, Command> knownCommands = commandMap.getKnownCommands();
+        String fallbackPrefix = ("bukkitclj" + namespace).toLowerCase(Locale.ROOT);
+        for (ClojureCommandFn command : commands.values()) {
+            commandMap.register(command.getName(), fallbackPrefix, command);
+
+            // Remember labels which were actually given to the command, so it can be unregistered without scanning all commands
+            List<String> labels = new ArrayList<>();
+            List<String> names = new ArrayList<>(command.getAliases());
+            names.add(0, command.getName());
+            for (String name : names) {
+                String label = name.toLowerCase(Locale.ROOT).trim();
+                if (knownCommands.get(label) == command) {
+                    labels.add(label);
+                }
+                if (knownCommands.get(fallbackPrefix + ":" + label) == command) {
+                    labels.add(fallbackPrefix + ":" + label);
+                }
+            }
+            commandLabels.put(command, labels);
         }
+        RegistrationBatch.commandsChanged();
+    }
 
-        for (Map.Entry<Permission, Boolean> entry : getPermissions().entrySet()) {
+    private void registerPermissions() {
+        if (permissions.isEmpty()) {
+            return;
+        }
+
+        PluginManager plm = Bukkit.getPluginManager();
+        List<Permission> overridden = new ArrayList<>();
+        List<Permission> added = new ArrayList<>();
+        for (Map.Entry<Permission, Boolean> entry : permissions.entrySet()) {
             Permission permission = entry.getKey();
-            boolean override = entry.getValue();
-            PluginManager plm = BukkitClj.getInstance().getServer().getPluginManager();
-            if (plm.getPermission(permission.getName()) != null) {
-                if (override) {
-                    plm.removePermission(permission.getName());
-                } else {
+            Permission existing = plm.getPermission(permission.getName());
+            if (existing != null) {
+                if (!entry.getValue()) {
                     BukkitClj.logger().warn("Permission {} is already registered, skipping", permission.getName());
-                    return;
+                    continue;
                 }
+                overridden.add(existing);
             }
+            added.add(permission);
+        }
+
+        plm.removePermissions(overridden);
+        plm.addPermissions(added);
+    }
 
-            plm.addPermission(permission);
+    /*
+     * Adds an action to run when this script gets unloaded or replaced by a new version
+     */
+    public void addUnloadHook(Runnable hook) {
+        unloadHooks.add(hook);
+
+        // Hooks added after unloading would never run
+        if (unloaded && unloadHooks.remove(hook)) {
+            throw new IllegalStateException("Script " + getScriptName() + " is already unloaded");
         }
     }
 
+    public boolean isUnloaded() {
+        return unloaded;
+    }
+
     public void unload(boolean unregister) {
+        deinit();
+        runUnloadHooks();
+        if (unregister) {
+            unregister();
+        }
+    }
+
+    void deinit() {
         try (ScriptHelper.ContextClassloaderWrapper c = ScriptHelper.withContextClassloader(classLoader)) {
             IFn scriptDeinitFunc = Clojure.var(getNamespace(), "script-deinit");
             try {
@@ -130,29 +243,162 @@ public final class ScriptInfo {
                 }
             }
         }
+    }
 
-        if (unregister) {
-            // Unregister listeners
-            for (ClojureListenerFn listener : getListeners()) {
-                listener.getEventHandlerList().unregister(listener);
+    void runUnloadHooks() {
+        unloaded = true;
+        Runnable hook;
+        while ((hook = unloadHooks.poll()) != null) {
+            try {
+                hook.run();
+            } catch (Exception e) {
+                getInstance().getSLF4JLogger().error("Failed to run unload hook of {}", getScriptPath(), e);
             }
+        }
+    }
 
-            // Unregister commands
-            Map<String, Command> knownCommands = new HashMap<>(Bukkit.getCommandMap().getKnownCommands());
+    void unregister() {
+        // Unregister listeners
+        EventDispatcher.unregister(getListeners());
+
+        // Unregister commands
+        if (!commandLabels.isEmpty()) {
+            CommandMap commandMap = Bukkit.getCommandMap();
+            Map<String, Command> knownCommands = commandMap.getKnownCommands();
             for (ClojureCommandFn command : getCommands().values()) {
-                command.unregister(Bukkit.getCommandMap());
-                knownCommands.forEach((label, cmd) -> {
-                    if (cmd == command) {
-                        Bukkit.getCommandMap().getKnownCommands().remove(label);
-                    }
-                });
+                List<String> labels = commandLabels.remove(command);
+                if (labels == null) {
+                    continue;
+                }
+
+                command.unregister(commandMap);
+                command.invalidateCompletions();
+                for (String label : labels) {
+                    knownCommands.remove(label, command);
+                }
+            }
+            RegistrationBatch.commandsChanged();
+        }
+
+        // Unregister permissions, leaving alone the ones registered by someone else
+        PluginManager plm = Bukkit.getPluginManager();
+        List<Permission> registered = new ArrayList<>();
+        for (Permission permission : getPermissions().keySet()) {
+            if (plm.getPermission(permission.getName()) == permission) {
+                registered.add(permission);
+            }
+        }
+        if (!registered.isEmpty()) {
+            plm.removePermissions(registered);
+        }
+    }
+
+    /*
+     * Returns whether this script registers exactly the same listeners, commands and permissions
+     * as the previous version, so that only handler functions need to be swapped
+     */
+    boolean canSwapFrom(ScriptInfo previous) {
+        if (listeners.size() != previous.listeners.size() || !commands.keySet().equals(previous.commands.keySet())
+                || permissions.size() != previous.permissions.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < listeners.size(); i++) {
+            ClojureListenerFn listener = listeners.get(i);
+            ClojureListenerFn other = previous.listeners.get(i);
+            if (listener.getEventClass() != other.getEventClass() || listener.getEventPriority() != other.getEventPriority()
+                    || listener.isIgnoreCancelled() != other.isIgnoreCancelled() || listener.getBackpressure() != other.getBackpressure()) {
+                return false;
+            }
+        }
+
+        for (ClojureCommandFn command : commands.values()) {
+            ClojureCommandFn other = previous.commands.get(command.getName());
+            if (!Objects.equals(command.getPermission(), other.getPermission()) || !command.getAliases().equals(other.getAliases())
+                    || command.isFilterPrefix() != other.isFilterPrefix()) {
+                return false;
             }
+        }
 
-            // Unregister permissions
-            for (Permission permission : getPermissions().keySet()) {
-                Bukkit.getPluginManager().removePermission(permission);
+        Iterator<Map.Entry<Permission, Boolean>> otherPermissions = previous.permissions.entrySet().iterator();
+        for (Map.Entry<Permission, Boolean> entry : permissions.entrySet()) {
+            Map.Entry<Permission, Boolean> other = otherPermissions.next();
+            if (!entry.getKey().getName().equals(other.getKey().getName()) || entry.getKey().getDefault() != other.getKey().getDefault()
+                    || !entry.getValue().equals(other.getValue())) {
+                return false;
             }
         }
+        return true;
+    }
+
+    /*
+     * Takes over registered listeners, commands and permissions of the previous version of this script,
+     * swapping in handler functions of this version. Returns an action which swaps previous handlers back
+     */
+    Runnable swapFrom(ScriptInfo previous) {
+        IFn[][] listenerHandlers = new IFn[listeners.size()][];
+        for (int i = 0; i < listeners.size(); i++) {
+            ClojureListenerFn registered = previous.listeners.get(i);
+            ClojureListenerFn listener = listeners.get(i);
+            listenerHandlers[i] = new IFn[] { registered.getHandler(), registered.getSnapshot() };
+            registered.swapHandlers(listener.getHandler(), listener.getSnapshot());
+            listeners.set(i, registered);
+        }
+
+        Map<String, IFn[]> commandHandlers = new HashMap<>();
+        for (String name : new ArrayList<>(commands.keySet())) {
+            ClojureCommandFn registered = previous.commands.get(name);
+            ClojureCommandFn command = commands.get(name);
+            commandHandlers.put(name, new IFn[] { registered.getHandler(), registered.getTabcompleteHandler() });
+            registered.swapHandlers(command.getHandler(), command.getTabcompleteHandler());
+            commands.put(name, registered);
+            commandLabels.put(registered, previous.commandLabels.get(registered));
+        }
+
+        permissions.clear();
+        permissions.putAll(previous.permissions);
+
+        return () -> {
+            for (int i = 0; i < listenerHandlers.length; i++) {
+                previous.listeners.get(i).swapHandlers(listenerHandlers[i][0], listenerHandlers[i][1]);
+            }
+            commandHandlers.forEach((name, handlers) -> previous.commands.get(name).swapHandlers(handlers[0], handlers[1]));
+        };
+    }
+
+    ScriptLoadProfile getLoadProfile() {
+        return loadProfile;
+    }
+
+    String getSourceDigest() {
+        return sourceDigest;
+    }
+
+    void setSourceDigest(String sourceDigest) {
+        this.sourceDigest = sourceDigest;
+    }
+
+    String getCacheKey() {
+        return cacheKey;
+    }
+
+    void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    /*
+     * Returns namespaces required in the script's ns form
+     */
+    Set<String> getRequires() {
+        return requires;
+    }
+
+    void setRequires(Set<String> requires) {
+        this.requires = requires;
+    }
+
+    public DynamicClassLoader getClassLoader() {
+        return classLoader;
     }
 
     public void setClassLoader(DynamicClassLoader classLoader) {
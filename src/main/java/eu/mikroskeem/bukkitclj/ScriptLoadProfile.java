@@ -0,0 +1,128 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Time spent in each phase of loading a script, along with the amount of classes it defined.
+ *
+ * @author Mark Vainomaa
+ */
+final class ScriptLoadProfile {
+    private final String scriptName;
+    private long readNanos;
+    private long parseNanos;
+    private long compileNanos;
+    private boolean cached;
+    private int definedClasses;
+    private long definedBytes;
+    private long registerNanos;
+    private long initNanos;
+
+    ScriptLoadProfile(String scriptName) {
+        this.scriptName = scriptName;
+    }
+
+    String getScriptName() {
+        return scriptName;
+    }
+
+    long getReadNanos() {
+        return readNanos;
+    }
+
+    long getParseNanos() {
+        return parseNanos;
+    }
+
+    long getCompileNanos() {
+        return compileNanos;
+    }
+
+    boolean isCached() {
+        return cached;
+    }
+
+    int getDefinedClasses() {
+        return definedClasses;
+    }
+
+    long getDefinedBytes() {
+        return definedBytes;
+    }
+
+    long getRegisterNanos() {
+        return registerNanos;
+    }
+
+    long getInitNanos() {
+        return initNanos;
+    }
+
+    long getTotalNanos() {
+        return readNanos + parseNanos + compileNanos + registerNanos + initNanos;
+    }
+
+    void recordSource(ScriptSource source) {
+        this.readNanos = source.getReadNanos();
+        this.parseNanos = source.getParseNanos();
+    }
+
+    void recordCompile(long nanos, NamedDynamicClassLoader classLoader) {
+        this.compileNanos = nanos;
+        this.cached = false;
+        this.definedClasses = classLoader.getDefinedClasses();
+        this.definedBytes = classLoader.getDefinedBytes();
+    }
+
+    /*
+     * Cached classes are defined by URLClassLoader, so they are counted from class files in the cache directory
+     */
+    void recordCachedCompile(long nanos, Path cacheDirectory) {
+        this.compileNanos = nanos;
+        this.cached = true;
+        try (Stream<Path> files = Files.walk(cacheDirectory)) {
+            for (Path file : (Iterable<Path>) files.filter(it -> it.toString().endsWith(".class"))::iterator) {
+                this.definedClasses++;
+                this.definedBytes += Files.size(file);
+            }
+        } catch (IOException e) {
+            BukkitClj.logger().warn("Failed to count cached classes of {}", scriptName, e);
+        }
+    }
+
+    void recordRegister(long nanos) {
+        this.registerNanos = nanos;
+    }
+
+    void recordInit(long nanos) {
+        this.initNanos = nanos;
+    }
+}
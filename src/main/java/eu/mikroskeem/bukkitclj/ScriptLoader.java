@@ -0,0 +1,188 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads a set of scripts at once, ordering them by their dependencies on each other.
+ *
+ * Reading and compiling scripts optionally happens on a worker pool, while registering
+ * scripts and running their script-init is always done on the calling thread. Namespaces
+ * required by scripts are still loaded by one worker at a time.
+ *
+ * @author Mark Vainomaa
+ */
+final class ScriptLoader {
+    private final BukkitClj plugin;
+    private final int threads;
+
+    ScriptLoader(BukkitClj plugin, int threads) {
+        this.plugin = plugin;
+        this.threads = threads;
+    }
+
+    /*
+     * Loads given script files and returns successfully loaded scripts
+     */
+    List<ScriptInfo> load(List<Path> scriptFiles) {
+        ExecutorService workers = threads > 1 ? Executors.newFixedThreadPool(threads, new WorkerThreadFactory()) : null;
+        Executor executor = workers != null ? workers : Runnable::run;
+        try {
+            // Read all sources
+            List<CompletableFuture<ScriptSource>> reads = new ArrayList<>(scriptFiles.size());
+            for (Path scriptFile : scriptFiles) {
+                reads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return ScriptSource.read(scriptFile);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+
+            Map<String, ScriptSource> sources = new LinkedHashMap<>(); // Namespace -> script source
+            for (int i = 0; i < scriptFiles.size(); i++) {
+                ScriptSource source;
+                try {
+                    source = reads.get(i).join();
+                } catch (CompletionException e) {
+                    BukkitClj.logger().error("Failed to read {}", scriptFiles.get(i), e.getCause());
+                    continue;
+                }
+
+                ScriptSource existing = sources.putIfAbsent(source.getNamespace(), source);
+                if (existing != null) {
+                    BukkitClj.logger().error("Failed to load {}: namespace {} is already used by {}",
+                            source.getScriptName(), source.getNamespace(), existing.getScriptName());
+                }
+            }
+
+            // Compile scripts once the scripts they depend on are compiled
+            List<ScriptSource> ordered = sortByDependencies(sources);
+            Map<String, CompletableFuture<ScriptInfo>> compiled = new HashMap<>();
+            for (ScriptSource source : ordered) {
+                CompletableFuture<?>[] dependencies = source.getRequires().stream()
+                        .map(compiled::get)
+                        .filter(Objects::nonNull)
+                        .toArray(CompletableFuture[]::new);
+
+                compiled.put(source.getNamespace(), CompletableFuture.allOf(dependencies).handleAsync((ignored, error) -> {
+                    if (error != null) {
+                        throw new CompletionException(new IllegalStateException("Script dependency failed to load", error));
+                    }
+
+                    try {
+                        return plugin.compileScript(source);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+
+            // Register scripts in dependency order
+            List<ScriptInfo> loaded = new ArrayList<>(ordered.size());
+            try (RegistrationBatch batch = RegistrationBatch.begin()) {
+                for (ScriptSource source : ordered) {
+                    try {
+                        ScriptInfo info = compiled.get(source.getNamespace()).join();
+                        plugin.enableScript(info);
+                        loaded.add(info);
+                    } catch (CompletionException e) {
+                        BukkitClj.logger().error("Failed to load {}", source.getPath(), e.getCause());
+                    } catch (Exception e) {
+                        BukkitClj.logger().error("Failed to load {}", source.getPath(), e);
+                    }
+                }
+            }
+            return loaded;
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /*
+     * Orders scripts so that every script comes after the scripts it requires
+     */
+    private static List<ScriptSource> sortByDependencies(Map<String, ScriptSource> sources) {
+        List<ScriptSource> sorted = new ArrayList<>(sources.size());
+        Map<String, Boolean> visited = new HashMap<>(); // Namespace -> whether visiting has finished
+        for (ScriptSource source : sources.values()) {
+            visit(source, sources, visited, sorted);
+        }
+        return sorted;
+    }
+
+    private static void visit(ScriptSource source, Map<String, ScriptSource> sources,
+                              Map<String, Boolean> visited, List<ScriptSource> sorted) {
+        if (visited.containsKey(source.getNamespace())) {
+            return;
+        }
+
+        visited.put(source.getNamespace(), false);
+        for (String required : source.getRequires()) {
+            ScriptSource dependency = sources.get(required);
+            if (dependency == null) {
+                continue;
+            }
+
+            if (Boolean.FALSE.equals(visited.get(required))) {
+                BukkitClj.logger().warn("Circular dependency between {} and {}", source.getScriptName(), dependency.getScriptName());
+                continue;
+            }
+            visit(dependency, sources, visited, sorted);
+        }
+        visited.put(source.getNamespace(), true);
+        sorted.add(source);
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BukkitClj Script Loader #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(BukkitClj.class.getClassLoader());
+            return thread;
+        }
+    }
+}
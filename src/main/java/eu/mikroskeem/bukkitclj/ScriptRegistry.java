@@ -0,0 +1,93 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of loaded scripts.
+ *
+ * Lookups and listing do not lock or allocate, listing returns an immutable snapshot
+ * which is rebuilt only when a script is added or removed. Loading and unloading
+ * is serialized per script name using {@link #getLock(String)}.
+ *
+ * @author Mark Vainomaa
+ */
+final class ScriptRegistry {
+    private final Map<String, ScriptInfo> scripts = new ConcurrentHashMap<>(); // Script filename -> script info
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>(); // Script filename -> lock
+    private volatile List<ScriptInfo> snapshot = Collections.emptyList();
+
+    ScriptInfo get(String name) {
+        return scripts.get(name);
+    }
+
+    List<ScriptInfo> list() {
+        return snapshot;
+    }
+
+    int size() {
+        return snapshot.size();
+    }
+
+    void add(ScriptInfo info) {
+        if (scripts.putIfAbsent(info.getScriptName(), info) != null) {
+            throw new IllegalArgumentException("Given script is already loaded!");
+        }
+        rebuildSnapshot();
+    }
+
+    boolean remove(ScriptInfo info) {
+        if (!scripts.remove(info.getScriptName(), info)) {
+            return false;
+        }
+        rebuildSnapshot();
+        return true;
+    }
+
+    boolean replace(ScriptInfo previous, ScriptInfo info) {
+        if (!scripts.replace(previous.getScriptName(), previous, info)) {
+            return false;
+        }
+        rebuildSnapshot();
+        return true;
+    }
+
+    /*
+     * Returns the lock guarding loading and unloading of given script
+     */
+    ReentrantLock getLock(String name) {
+        return locks.computeIfAbsent(name, k -> new ReentrantLock());
+    }
+
+    private synchronized void rebuildSnapshot() {
+        snapshot = List.copyOf(scripts.values());
+    }
+}
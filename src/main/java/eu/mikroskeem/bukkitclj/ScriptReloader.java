@@ -0,0 +1,268 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.Namespace;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.IllegalPluginAccessException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hot-reloads scripts changed in the scripts directory.
+ *
+ * Changed scripts are read and their dependencies resolved in the background. Compiling and swapping
+ * happens on the main thread, so live handlers never see a half-loaded version, at the cost of stalling
+ * the tick while the script compiles. When the new version registers the same listeners, commands and
+ * permissions, only handler functions are swapped inside already registered wrappers, otherwise the
+ * script is re-registered. If anything fails, the previous version is restored.
+ *
+ * @author Mark Vainomaa
+ */
+final class ScriptReloader {
+    private final BukkitClj plugin;
+    private final ScriptRegistry scripts;
+    private final long debounceMillis;
+    private final ScheduledExecutorService executor;
+    private final Map<String, ScheduledFuture<?>> pending = new ConcurrentHashMap<>(); // Script filename -> scheduled reload
+
+    ScriptReloader(BukkitClj plugin, ScriptRegistry scripts, long debounceMillis) {
+        this.plugin = plugin;
+        this.scripts = scripts;
+        this.debounceMillis = debounceMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BukkitClj Script Reloader");
+            thread.setDaemon(true);
+            thread.setContextClassLoader(BukkitClj.class.getClassLoader());
+            return thread;
+        });
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /*
+     * Editors tend to write files in several steps, so reload only after changes have settled
+     */
+    void scriptChanged(String name) {
+        pending.compute(name, (k, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            return executor.schedule(() -> {
+                pending.remove(name);
+                reload(name);
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void reload(String name) {
+        // Only loaded scripts are reloaded
+        ScriptInfo current = scripts.get(name);
+        if (current == null) {
+            return;
+        }
+
+        ScriptSource source;
+        try {
+            source = ScriptSource.read(BukkitClj.scriptsPath.resolve(name));
+        } catch (Exception e) {
+            BukkitClj.logger().error("Failed to read {}, keeping the previous version", name, e);
+            return;
+        }
+
+        if (source.getDigest().equals(current.getSourceDigest())) {
+            return;
+        }
+        if (!source.getNamespace().equals(current.getNamespace())) {
+            BukkitClj.logger().warn("Namespace of {} changed, reload it manually", name);
+            return;
+        }
+
+        BukkitClj.logger().info("Reloading {}...", name);
+        long startTime = System.nanoTime();
+        try {
+            plugin.resolveDependencies(source);
+        } catch (Exception e) {
+            BukkitClj.logger().error("Failed to resolve dependencies of {}, keeping the previous version", name, e);
+            return;
+        }
+
+        try {
+            Bukkit.getScheduler().runTask(plugin, () -> swap(current, source, startTime));
+        } catch (IllegalPluginAccessException ignored) {
+            // Plugin is being disabled
+        }
+    }
+
+    /*
+     * Compiles the new version and swaps it in. Runs on the main thread, as compiling evaluates
+     * top-level forms and redefines vars which handlers of the previous version are using.
+     */
+    private void swap(ScriptInfo current, ScriptSource source, long startTime) {
+        ReentrantLock lock = scripts.getLock(current.getScriptName());
+        lock.lock();
+        try (RegistrationBatch batch = RegistrationBatch.begin()) {
+            if (scripts.get(current.getScriptName()) != current) {
+                BukkitClj.logger().warn("{} was reloaded meanwhile, discarding changes", current.getScriptName());
+                return;
+            }
+
+            NamespaceSnapshot snapshot = new NamespaceSnapshot(current.getNamespace());
+            ScriptInfo updated;
+            try {
+                updated = plugin.compileScript(source);
+            } catch (Exception | LinkageError e) {
+                snapshot.restore();
+                BukkitClj.logger().error("Failed to compile {}, keeping the previous version", current.getScriptName(), e);
+                return;
+            }
+
+            // Script vars are already redefined, so previous version is deinitialized using its own function
+            invoke(current, snapshot.getFunction("script-deinit"), "deinitialize");
+
+            if (updated.canSwapFrom(current)) {
+                Runnable rollback = updated.swapFrom(current);
+                RuntimeException failure = null;
+
+                // Tasks and unload hooks created by script-init must belong to the new version
+                BukkitClj.beginLoading(updated);
+                try {
+                    plugin.initializeScript(updated);
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    BukkitClj.loadingScripts.remove(updated.getNamespace(), updated);
+                }
+
+                if (failure != null) {
+                    rollback.run();
+                    updated.runUnloadHooks();
+                    snapshot.restore();
+                    plugin.rememberCacheKey(current);
+                    invoke(current, snapshot.getFunction("script-init"), "initialize");
+                    BukkitClj.logger().error("Failed to initialize {}, restored the previous version", current.getScriptName(), failure);
+                    return;
+                }
+            } else {
+                current.unregister();
+                try {
+                    plugin.enableScript(updated);
+                } catch (Exception e) {
+                    // enableScript has already unregistered the new version and run its unload hooks
+                    snapshot.restore();
+                    plugin.rememberCacheKey(current);
+                    current.load();
+                    invoke(current, snapshot.getFunction("script-init"), "initialize");
+                    BukkitClj.logger().error("Failed to initialize {}, restored the previous version", current.getScriptName(), e);
+                    return;
+                }
+            }
+
+            scripts.replace(current, updated);
+            current.runUnloadHooks();
+            NamedDynamicClassLoader.purgeClassCache(current.getClassLoader(), null);
+            plugin.getLeakDetector().track(current);
+            plugin.pruneCache(updated);
+            BukkitClj.logger().info("Reloaded {}", current.getScriptName());
+            plugin.reportLoad("reload", "reload-" + current.getScriptName() + ".json", System.nanoTime() - startTime, List.of(updated));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void invoke(ScriptInfo script, IFn function, String action) {
+        if (function == null) {
+            return;
+        }
+
+        try (ScriptHelper.ContextClassloaderWrapper c = ScriptHelper.withScriptClassloader(script)) {
+            function.invoke();
+        } catch (Exception e) {
+            BukkitClj.logger().error("Failed to {} previous version of {}", action, script.getScriptName(), e);
+        }
+    }
+
+    /*
+     * Root values and metadata of vars interned in a namespace, used to undo a failed reload
+     */
+    private static final class NamespaceSnapshot {
+        private final Namespace namespace;
+        private final Map<Symbol, Var> vars = new HashMap<>();
+        private final Map<Var, Object> roots = new HashMap<>();
+        private final Map<Var, IPersistentMap> metas = new HashMap<>();
+
+        NamespaceSnapshot(String name) {
+            this.namespace = Namespace.findOrCreate(Symbol.intern(name));
+            for (Object o : namespace.getMappings()) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                if (entry.getValue() instanceof Var && ((Var) entry.getValue()).ns == namespace) {
+                    Var var = (Var) entry.getValue();
+                    vars.put((Symbol) entry.getKey(), var);
+                    metas.put(var, var.meta());
+                    if (var.hasRoot()) {
+                        roots.put(var, var.getRawRoot());
+                    }
+                }
+            }
+        }
+
+        IFn getFunction(String name) {
+            Object root = roots.get(vars.get(Symbol.intern(name)));
+            return root instanceof IFn ? (IFn) root : null;
+        }
+
+        void restore() {
+            // Remove vars which did not exist before
+            for (Object o : namespace.getMappings()) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                if (entry.getValue() instanceof Var && ((Var) entry.getValue()).ns == namespace && !vars.containsKey(entry.getKey())) {
+                    namespace.unmap((Symbol) entry.getKey());
+                }
+            }
+
+            for (Var var : vars.values()) {
+                if (roots.containsKey(var)) {
+                    var.bindRoot(roots.get(var));
+                }
+                var.setMeta(metas.get(var));
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.IFn;
+import clojure.lang.Namespace;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Main thread scheduler for script tasks.
+ *
+ * Each script has its own queue of due tasks, and queues take turns running one task at a time until
+ * the per-tick time budget is spent. Tasks which did not fit into the budget run on the next tick.
+ * Tasks of a script are cancelled when the script gets unloaded, and scheduling for an unloaded script fails.
+ *
+ * @author Mark Vainomaa
+ */
+public final class ScriptScheduler {
+    private static final Queue<Task> submitted = new ConcurrentLinkedQueue<>();
+    private static final Map<ScriptInfo, ScriptQueue> queues = new ConcurrentHashMap<>();
+
+    // Only accessed from the main thread
+    private static final PriorityQueue<Task> timers = new PriorityQueue<>(Comparator.comparingLong(task -> task.dueTick));
+    private static final ArrayDeque<ScriptQueue> ready = new ArrayDeque<>();
+    private static long currentTick;
+
+    private static volatile boolean purgeCancelled; // Whether cancelled tasks are waiting to be dropped
+    private static volatile long tickBudgetNanos;
+    private static BukkitTask timerTask;
+
+    private ScriptScheduler() {}
+
+    /*
+     * Schedules a function to run on the main thread after given delay in ticks, repeating
+     * it every period ticks if period is positive
+     */
+    public static Task schedule(Namespace namespace, long delay, long period, IFn function) {
+        if (function == null) {
+            throw new IllegalArgumentException("Function cannot be nil!");
+        }
+
+        ScriptInfo script = ScriptHelper.getScript(namespace);
+        ScriptQueue queue = queues.computeIfAbsent(script, ScriptQueue::new);
+        if (queue.cancelled) {
+            throw new IllegalStateException("Script " + script.getScriptName() + " is already unloaded");
+        }
+        Task task = new Task(queue, function, Math.max(0L, delay), Math.max(0L, period));
+        submitted.add(task);
+        return task;
+    }
+
+    static synchronized void start(Plugin plugin, long tickBudgetNanos) {
+        ScriptScheduler.tickBudgetNanos = tickBudgetNanos;
+        timerTask = Bukkit.getScheduler().runTaskTimer(plugin, ScriptScheduler::tick, 1L, 1L);
+    }
+
+    static synchronized void stop() {
+        if (timerTask != null) {
+            timerTask.cancel();
+            timerTask = null;
+        }
+
+        for (ScriptQueue queue : queues.values()) {
+            queue.cancelled = true;
+        }
+        queues.clear();
+        submitted.clear();
+        timers.clear();
+        ready.clear();
+    }
+
+    private static void tick() {
+        long deadline = System.nanoTime() + tickBudgetNanos;
+        currentTick++;
+
+        // Pick up newly scheduled tasks
+        Task task;
+        while ((task = submitted.poll()) != null) {
+            task.dueTick = currentTick + task.delay;
+            timers.add(task);
+        }
+
+        // Drop cancelled tasks right away, so they do not keep script classloaders alive until they are due
+        if (purgeCancelled) {
+            purgeCancelled = false;
+            timers.removeIf(Task::isCancelled);
+            ready.removeIf(queue -> {
+                queue.due.removeIf(Task::isCancelled);
+                if (queue.due.isEmpty()) {
+                    queue.queued = false;
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        // Move due tasks to their script queues
+        while (!timers.isEmpty() && timers.peek().dueTick <= currentTick) {
+            task = timers.poll();
+            if (!task.isCancelled()) {
+                task.queue.enqueue(task);
+            }
+        }
+
+        // Round-robin between scripts until budget is spent, running at least one task per tick
+        boolean ran = false;
+        while (!ready.isEmpty() && (!ran || System.nanoTime() < deadline)) {
+            ScriptQueue queue = ready.poll();
+            task = queue.due.poll();
+            if (task != null && !task.isCancelled()) {
+                run(task);
+                ran = true;
+            }
+
+            if (queue.due.isEmpty()) {
+                queue.queued = false;
+            } else {
+                ready.add(queue);
+            }
+        }
+    }
+
+    private static void run(Task task) {
+        try {
+            task.function.invoke();
+        } catch (Throwable t) {
+            BukkitClj.logger().error("Task {} of {} failed", task.function, task.queue.script.getScriptName(), t);
+        }
+
+        if (task.period > 0 && !task.isCancelled()) {
+            task.dueTick = currentTick + task.period;
+            timers.add(task);
+        } else {
+            task.cancelled = true;
+        }
+    }
+
+    private static final class ScriptQueue {
+        private final ScriptInfo script;
+        private final ArrayDeque<Task> due = new ArrayDeque<>();
+        private boolean queued; // Whether this queue is in the ready queue
+        private volatile boolean cancelled;
+
+        private ScriptQueue(ScriptInfo script) {
+            this.script = script;
+            script.addUnloadHook(() -> {
+                cancelled = true;
+                purgeCancelled = true;
+                queues.remove(script, this);
+            });
+        }
+
+        private void enqueue(Task task) {
+            due.add(task);
+            if (!queued) {
+                queued = true;
+                ready.add(this);
+            }
+        }
+    }
+
+    /**
+     * A scheduled script task
+     */
+    public static final class Task {
+        private final ScriptQueue queue;
+        private final IFn function;
+        private final long delay;
+        private final long period;
+        private long dueTick;
+        private volatile boolean cancelled;
+
+        private Task(ScriptQueue queue, IFn function, long delay, long period) {
+            this.queue = queue;
+            this.function = function;
+            this.delay = delay;
+            this.period = period;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            purgeCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled || queue.cancelled;
+        }
+    }
+}
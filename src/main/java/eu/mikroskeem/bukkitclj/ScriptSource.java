@@ -0,0 +1,167 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.ISeq;
+import clojure.lang.LineNumberingPushbackReader;
+import clojure.lang.LispReader;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Script source read from disk, along with the information found in its ns form.
+ *
+ * @author Mark Vainomaa
+ */
+final class ScriptSource {
+    private final Path path;
+    private final byte[] source;
+    private final String digest;
+    private final String namespace;
+    private final Set<String> requires;
+    private final Object dependencies;
+    private final long readNanos;
+    private final long parseNanos;
+
+    private ScriptSource(Path path, byte[] source, String namespace, Set<String> requires, Object dependencies,
+                         long readNanos, long parseNanos) {
+        this.path = path;
+        this.source = source;
+        this.digest = ScriptCache.toHex(ScriptCache.sha256().digest(source));
+        this.namespace = namespace;
+        this.requires = requires;
+        this.dependencies = dependencies;
+        this.readNanos = readNanos;
+        this.parseNanos = parseNanos;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    String getScriptName() {
+        return path.getFileName().toString();
+    }
+
+    byte[] getSource() {
+        return source;
+    }
+
+    /*
+     * Returns a new reader over the source buffer
+     */
+    Reader newReader() {
+        return new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Returns SHA-256 digest of the source
+     */
+    String getDigest() {
+        return digest;
+    }
+
+    String getNamespace() {
+        return namespace;
+    }
+
+    /*
+     * Returns namespaces listed in :require and :use of the ns form
+     */
+    Set<String> getRequires() {
+        return requires;
+    }
+
+    /*
+     * Returns Maven coordinates declared in the ns form, or null if there are none
+     */
+    Object getDependencies() {
+        return dependencies;
+    }
+
+    /*
+     * Returns time spent reading the file
+     */
+    long getReadNanos() {
+        return readNanos;
+    }
+
+    /*
+     * Returns time spent extracting namespace and requires from the ns form
+     */
+    long getParseNanos() {
+        return parseNanos;
+    }
+
+    static ScriptSource read(Path path) throws IOException {
+        long start = System.nanoTime();
+        byte[] source = Files.readAllBytes(path);
+        long read = System.nanoTime();
+        Object nsForm = readNsForm(source);
+        if (!(RT.second(nsForm) instanceof Symbol)) {
+            throw new IllegalArgumentException("Script " + path.getFileName() + " does not start with a ns form");
+        }
+
+        String namespace = ((Symbol) RT.second(nsForm)).getName();
+        Set<String> requires = new LinkedHashSet<>();
+        for (ISeq seq = RT.seq(RT.var("bukkitclj.internal", "get-ns-requires").invoke(nsForm)); seq != null; seq = seq.next()) {
+            requires.add(((Symbol) seq.first()).getName());
+        }
+
+        Object dependencies = RT.var("bukkitclj.internal", "get-ns-dependencies").invoke(nsForm);
+        if (RT.seq(dependencies) == null) {
+            dependencies = null;
+        }
+
+        return new ScriptSource(path, source, namespace, Collections.unmodifiableSet(requires), dependencies,
+                read - start, System.nanoTime() - read);
+    }
+
+    /*
+     * Reads only the first top-level form from the source, which is expected to be the ns form
+     */
+    private static Object readNsForm(byte[] source) throws IOException {
+        Var.pushThreadBindings(RT.map(RT.READEVAL, Boolean.FALSE));
+        try (LineNumberingPushbackReader reader = new LineNumberingPushbackReader(
+                new InputStreamReader(new ByteArrayInputStream(source), StandardCharsets.UTF_8))) {
+            return LispReader.read(reader, false, null, false);
+        } finally {
+            Var.popThreadBindings();
+        }
+    }
+}
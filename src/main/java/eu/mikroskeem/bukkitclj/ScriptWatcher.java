@@ -0,0 +1,109 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.function.Consumer;
+
+/**
+ * Watches the scripts directory for changes of script files.
+ *
+ * @author Mark Vainomaa
+ */
+final class ScriptWatcher {
+    private final WatchService watchService;
+    private final Consumer<String> scriptChanged;
+    private final Runnable scriptsListed;
+    private Thread watchThread;
+
+    /*
+     * scriptChanged receives names of created or modified script files, scriptsListed
+     * is notified when the set of script files might have changed
+     */
+    ScriptWatcher(Path directory, Consumer<String> scriptChanged, Runnable scriptsListed) throws IOException {
+        this.watchService = directory.getFileSystem().newWatchService();
+        this.scriptChanged = scriptChanged;
+        this.scriptsListed = scriptsListed;
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    void start() {
+        watchThread = new Thread(this::watch, "BukkitClj Script Watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) {}
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, so nothing is known about the directory anymore
+                    scriptsListed.run();
+                    continue;
+                }
+
+                String name = event.context().toString();
+                if (!name.endsWith(".clj")) {
+                    continue;
+                }
+
+                if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+                    scriptsListed.run();
+                }
+                if (event.kind() != StandardWatchEventKinds.ENTRY_DELETE) {
+                    scriptChanged.accept(name);
+                }
+            }
+
+            if (!key.reset()) {
+                return;
+            }
+        }
+    }
+}
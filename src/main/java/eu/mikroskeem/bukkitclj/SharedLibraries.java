@@ -0,0 +1,237 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj;
+
+import clojure.lang.Compiler;
+import clojure.lang.IPersistentSet;
+import clojure.lang.PersistentVector;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads namespaces from the clj-lib directory once into a classloader shared by all scripts.
+ *
+ * Every script requiring a library holds a reference to it and to the clj-lib namespaces it depends on.
+ * Library namespaces are removed only after the last script holding them is unloaded, so a changed
+ * library gets loaded again only once no dependent script remains.
+ *
+ * @author Mark Vainomaa
+ */
+final class SharedLibraries {
+    private final Path libraryPath;
+    private final NamedDynamicClassLoader classLoader;
+    private final Map<String, Library> libraries = new HashMap<>(); // Namespace -> loaded library
+
+    SharedLibraries(Path libraryPath, ClassLoader parent) {
+        this.libraryPath = libraryPath;
+        this.classLoader = new NamedDynamicClassLoader(parent, "shared library classloader");
+    }
+
+    /*
+     * Returns the classloader used as parent of script classloaders
+     */
+    NamedDynamicClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /*
+     * Loads clj-lib namespaces among given requires when needed, and holds them until the script gets unloaded
+     */
+    void acquire(ScriptInfo info, Set<String> requires) {
+        List<String> acquired = new ArrayList<>();
+        synchronized (this) {
+            try {
+                for (String namespace : requires) {
+                    if (getSourceFile(namespace) == null) {
+                        continue;
+                    }
+
+                    Library library = libraries.get(namespace);
+                    if (library == null) {
+                        library = load(namespace);
+                    }
+                    for (String dependency : library.namespaces) {
+                        libraries.get(dependency).references++;
+                        acquired.add(dependency);
+                    }
+                }
+            } catch (RuntimeException e) {
+                release(acquired);
+                throw e;
+            }
+        }
+
+        if (!acquired.isEmpty()) {
+            info.addUnloadHook(() -> release(acquired));
+        }
+    }
+
+    private synchronized void release(List<String> acquired) {
+        List<Symbol> unused = new ArrayList<>();
+        for (String namespace : acquired) {
+            Library library = libraries.get(namespace);
+            if (library != null && --library.references == 0) {
+                libraries.remove(namespace);
+                unused.add(Symbol.intern(namespace));
+            }
+        }
+
+        if (!unused.isEmpty()) {
+            RT.var("bukkitclj.internal", "unload-libs").invoke(PersistentVector.create(unused));
+            for (Symbol namespace : unused) {
+                NamedDynamicClassLoader.purgeClassCache(classLoader, namespace.getName());
+            }
+        }
+    }
+
+    /*
+     * Returns a digest of clj-lib sources among given requires, including libraries they depend on
+     */
+    String getSourceDigest(Set<String> requires) throws IOException {
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        Set<String> namespaces = new TreeSet<>();
+        for (String namespace : requires) {
+            if (getSourceFile(namespace) != null) {
+                namespaces.addAll(getDependencies(namespace, dependencies));
+            }
+        }
+
+        MessageDigest digest = ScriptCache.sha256();
+        for (String namespace : namespaces) {
+            digest.update((namespace + '\0').getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(getSourceFile(namespace)));
+        }
+        return ScriptCache.toHex(digest.digest());
+    }
+
+    /*
+     * Requires the library in shared classloader, and starts tracking it along with clj-lib namespaces it depends on
+     */
+    private Library load(String namespace) {
+        long start = System.nanoTime();
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        Set<String> namespaces = getDependencies(namespace, dependencies);
+
+        Var.pushThreadBindings(RT.mapUniqueKeys(
+                Compiler.LOADER, classLoader,
+                Compiler.COMPILE_FILES, Boolean.FALSE
+        ));
+        try {
+            RT.var("clojure.core", "require").invoke(Symbol.intern(namespace));
+        } catch (RuntimeException e) {
+            // Dependencies loaded before the failure are not held by anyone, so drop them instead of leaving them untracked
+            IPersistentSet loaded = (IPersistentSet) RT.var("clojure.core", "loaded-libs").invoke();
+            List<Symbol> unused = new ArrayList<>();
+            for (String dependency : namespaces) {
+                Symbol name = Symbol.intern(dependency);
+                if (!libraries.containsKey(dependency) && loaded.contains(name)) {
+                    unused.add(name);
+                }
+            }
+            if (!unused.isEmpty()) {
+                RT.var("bukkitclj.internal", "unload-libs").invoke(PersistentVector.create(unused));
+            }
+            throw e;
+        } finally {
+            Var.popThreadBindings();
+        }
+
+        // Dependencies can be required directly as well
+        for (String dependency : namespaces) {
+            libraries.computeIfAbsent(dependency, it -> new Library(getDependencies(it, dependencies)));
+        }
+
+        BukkitClj.logger().info("Loaded shared library {} in {}ms", namespace,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return libraries.get(namespace);
+    }
+
+    /*
+     * Returns the library along with clj-lib namespaces it requires directly or through other libraries.
+     * Dependencies are read from ns forms, as libraries required earlier by other scripts are not loaded again.
+     */
+    private Set<String> getDependencies(String namespace, Map<String, Set<String>> known) {
+        Set<String> dependencies = known.get(namespace);
+        if (dependencies != null) {
+            return dependencies;
+        }
+
+        dependencies = new LinkedHashSet<>();
+        dependencies.add(namespace);
+        known.put(namespace, dependencies);
+
+        ScriptSource source;
+        try {
+            source = ScriptSource.read(getSourceFile(namespace));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read shared library " + namespace, e);
+        }
+        for (String require : source.getRequires()) {
+            if (getSourceFile(require) != null) {
+                dependencies.addAll(getDependencies(require, known));
+            }
+        }
+        return dependencies;
+    }
+
+    /*
+     * Returns namespace source in the clj-lib directory, or null if it is not a library
+     */
+    private Path getSourceFile(String namespace) {
+        String sourcePath = ScriptCache.getSourcePath(namespace);
+        Path sourceFile = libraryPath.resolve(sourcePath);
+        if (Files.exists(sourceFile)) {
+            return sourceFile;
+        }
+
+        sourceFile = libraryPath.resolve(sourcePath + 'c');
+        return Files.exists(sourceFile) ? sourceFile : null;
+    }
+
+    private static final class Library {
+        private final Set<String> namespaces; // This library and clj-lib namespaces it depends on
+        private int references;
+
+        private Library(Set<String> namespaces) {
+            this.namespaces = namespaces;
+        }
+    }
+}
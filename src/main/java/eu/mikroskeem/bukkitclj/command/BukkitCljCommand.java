@@ -26,8 +26,10 @@
 package eu.mikroskeem.bukkitclj.command;
 
 import eu.mikroskeem.bukkitclj.BukkitClj;
+import eu.mikroskeem.bukkitclj.ClassLoaderLeakDetector;
 import eu.mikroskeem.bukkitclj.ScriptInfo;
 import eu.mikroskeem.bukkitclj.api.ScriptManager;
+import eu.mikroskeem.bukkitclj.stats.InvocationStats;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -37,19 +39,26 @@ import org.bukkit.util.StringUtil;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author Mark Vainomaa
  */
 public final class BukkitCljCommand implements CommandExecutor, TabCompleter {
     private final ScriptManager manager;
-    private final List<String> allSubcommands = Arrays.asList("list", "load", "unload", "reload");
+    private final List<String> allSubcommands = Arrays.asList("list", "load", "unload", "reload", "stats", "leaks");
+    private static final int STATS_SHOWN = 15;
+    private boolean cacheScriptFiles;
+    private List<Path> scriptFiles; // Cached listing of the scripts directory, null when not listed yet
 
     public BukkitCljCommand(ScriptManager manager) {
         this.manager = manager;
@@ -131,6 +140,62 @@ public final class BukkitCljCommand implements CommandExecutor, TabCompleter {
                 }
                 break;
             }
+            case "stats": {
+                if (args.length > 2 || (args.length == 2 && !args[1].equals("reset"))) {
+                    sender.sendMessage(String.format("Usage: /%s stats [reset]", label));
+                    return true;
+                }
+
+                List<InvocationStats> stats = new ArrayList<>();
+                List<InvocationStats> asyncStats = new ArrayList<>();
+                for (ScriptInfo script : manager.listScripts()) {
+                    stats.addAll(script.getStats());
+                    asyncStats.addAll(script.getAsyncStats());
+                }
+
+                if (args.length == 2) {
+                    stats.forEach(InvocationStats::reset);
+                    asyncStats.forEach(InvocationStats::reset);
+                    sender.sendMessage("Script statistics reset");
+                    break;
+                }
+
+                sendStats(sender, "Script handlers by total time", stats);
+
+                // Async handlers run on worker threads, so they are not ranked together with tick time
+                asyncStats.removeIf(it -> it.getCount() == 0);
+                if (!asyncStats.isEmpty()) {
+                    sendStats(sender, "Async listener handlers by total time on worker threads", asyncStats);
+                }
+                break;
+            }
+            case "leaks": {
+                if (args.length != 1) {
+                    sender.sendMessage(String.format("Usage: /%s leaks", label));
+                    return true;
+                }
+
+                List<ClassLoaderLeakDetector.Leak> leaks = BukkitClj.getInstance().getLeakDetector().findLeaks();
+                if (leaks.isEmpty()) {
+                    sender.sendMessage("All classloaders of unloaded scripts were garbage collected");
+                    break;
+                }
+
+                sender.sendMessage("Classloaders of unloaded scripts still alive after GC (" + leaks.size() + "):");
+                long now = System.currentTimeMillis();
+                for (ClassLoaderLeakDetector.Leak leak : leaks) {
+                    sender.sendMessage(String.format(Locale.ROOT, "- %s (%s), unloaded %ds ago: %d classes, ~%d KiB",
+                            leak.getScriptName(), leak.getNamespace(), (now - leak.getUnloadedAt()) / 1000,
+                            leak.getClasses(), leak.getClassBytes() / 1024));
+                    if (leak.getRetainers().isEmpty()) {
+                        sender.sendMessage("  retained by: unknown");
+                    }
+                    for (String retainer : leak.getRetainers()) {
+                        sender.sendMessage("  retained by: " + retainer);
+                    }
+                }
+                break;
+            }
             default: {
                 sender.sendMessage(String.format("Usage: /%s <%s>", label, String.join("/", allSubcommands)));
                 return true;
@@ -149,9 +214,7 @@ public final class BukkitCljCommand implements CommandExecutor, TabCompleter {
         } else if (args.length == 2) {
             if (args[0].equals("load")) {
                 try {
-                    List<Path> scriptFiles = Files.list(manager.getScriptsDirectory())
-                            .filter(p -> p.toString().endsWith(".clj"))
-                            .collect(Collectors.toList());
+                    List<Path> scriptFiles = new ArrayList<>(listScriptFiles());
 
                     // Exclude already loaded scripts
                     manager.listScripts().stream()
@@ -163,6 +226,8 @@ public final class BukkitCljCommand implements CommandExecutor, TabCompleter {
                             .map(Path::toString)
                             .collect(Collectors.toList());
                 } catch (IOException ignored) {}
+            } else if (args[0].equals("stats")) {
+                completions = Collections.singletonList("reset");
             } else if (args[0].equals("unload") || args[0].equals("reload")) {
                 completions = manager.listScripts().stream()
                         .map(ScriptInfo::getScriptPath)
@@ -173,4 +238,52 @@ public final class BukkitCljCommand implements CommandExecutor, TabCompleter {
         }
         return StringUtil.copyPartialMatches(lastArg, completions, new LinkedList<>());
     }
+
+    /*
+     * Enables caching the scripts directory listing. Cache must be invalidated
+     * through {@link #invalidateScriptFiles()} whenever script files are added or removed
+     */
+    public synchronized void setCacheScriptFiles(boolean cacheScriptFiles) {
+        this.cacheScriptFiles = cacheScriptFiles;
+        this.scriptFiles = null;
+    }
+
+    public synchronized void invalidateScriptFiles() {
+        this.scriptFiles = null;
+    }
+
+    private synchronized List<Path> listScriptFiles() throws IOException {
+        if (scriptFiles != null) {
+            return scriptFiles;
+        }
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(manager.getScriptsDirectory())) {
+            files = listing.filter(p -> p.toString().endsWith(".clj")).collect(Collectors.toList());
+        }
+        if (cacheScriptFiles) {
+            scriptFiles = files;
+        }
+        return files;
+    }
+
+    private static void sendStats(CommandSender sender, String title, List<InvocationStats> stats) {
+        stats.removeIf(it -> it.getCount() == 0);
+        stats.sort(Comparator.comparingLong(InvocationStats::getTotalNanos).reversed());
+        sender.sendMessage(title + " (" + stats.size() + "):");
+        for (InvocationStats stat : stats.subList(0, Math.min(STATS_SHOWN, stats.size()))) {
+            sender.sendMessage(String.format(Locale.ROOT, "- %s: %d calls, total %s, avg %s, p50 %s, p99 %s, max %s",
+                    stat.getName(), stat.getCount(), formatNanos(stat.getTotalNanos()),
+                    formatNanos(stat.getTotalNanos() / stat.getCount()),
+                    formatNanos(stat.getPercentileNanos(0.5)), formatNanos(stat.getPercentileNanos(0.99)),
+                    formatNanos(stat.getMaxNanos())));
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format(Locale.ROOT, "%.2fms", nanos / 1_000_000.0);
+        }
+        return String.format(Locale.ROOT, "%.1fµs", nanos / 1_000.0);
+    }
 }
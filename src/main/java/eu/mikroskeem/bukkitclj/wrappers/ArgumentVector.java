@@ -0,0 +1,115 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj.wrappers;
+
+import clojure.lang.APersistentVector;
+import clojure.lang.IFn;
+import clojure.lang.IPersistentCollection;
+import clojure.lang.IPersistentStack;
+import clojure.lang.IPersistentVector;
+import clojure.lang.IReduce;
+import clojure.lang.LazilyPersistentVector;
+import clojure.lang.PersistentVector;
+import clojure.lang.RT;
+import clojure.lang.Reduced;
+
+import java.util.Arrays;
+
+/**
+ * Read-only persistent vector view over command arguments, avoiding a copy on every invocation.
+ * Modifying operations return a regular persistent vector.
+ *
+ * @author Mark Vainomaa
+ */
+final class ArgumentVector extends APersistentVector implements IReduce {
+    private final String[] args;
+
+    ArgumentVector(String[] args) {
+        this.args = args;
+    }
+
+    @Override
+    public int count() {
+        return args.length;
+    }
+
+    @Override
+    public Object nth(int i) {
+        return args[i];
+    }
+
+    @Override
+    public IPersistentVector assocN(int i, Object val) {
+        return toPersistentVector().assocN(i, val);
+    }
+
+    @Override
+    public IPersistentVector cons(Object o) {
+        return toPersistentVector().cons(o);
+    }
+
+    @Override
+    public IPersistentStack pop() {
+        return toPersistentVector().pop();
+    }
+
+    @Override
+    public IPersistentCollection empty() {
+        return PersistentVector.EMPTY;
+    }
+
+    @Override
+    public Object reduce(IFn f) {
+        if (args.length == 0) {
+            return f.invoke();
+        }
+
+        Object ret = args[0];
+        for (int i = 1; i < args.length; i++) {
+            ret = f.invoke(ret, args[i]);
+            if (RT.isReduced(ret)) {
+                return ((Reduced) ret).deref();
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Object reduce(IFn f, Object start) {
+        Object ret = start;
+        for (String arg : args) {
+            ret = f.invoke(ret, arg);
+            if (RT.isReduced(ret)) {
+                return ((Reduced) ret).deref();
+            }
+        }
+        return ret;
+    }
+
+    private IPersistentVector toPersistentVector() {
+        return LazilyPersistentVector.createOwning(Arrays.copyOf(args, args.length, Object[].class));
+    }
+}
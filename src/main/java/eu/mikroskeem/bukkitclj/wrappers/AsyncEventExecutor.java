@@ -0,0 +1,125 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj.wrappers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pool running handlers of async Clojure listeners.
+ *
+ * @author Mark Vainomaa
+ */
+public final class AsyncEventExecutor {
+    private static volatile ThreadPoolExecutor executor;
+    private static volatile long blockTimeoutNanos;
+
+    private AsyncEventExecutor() {}
+
+    /*
+     * Starts worker threads. Handlers are queued up to given queue size, after which
+     * listener's backpressure mode decides what happens. Blocking submissions wait for
+     * room in the queue at most for given time
+     */
+    public static synchronized void start(int threads, int queueSize, long blockTimeout, TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("Async event executor is already started");
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "BukkitClj Async Event Handler #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(AsyncEventExecutor.class.getClassLoader());
+            return thread;
+        });
+
+        // Blocking submissions put tasks straight into the queue, so all workers must be running
+        executor.prestartAllCoreThreads();
+        AsyncEventExecutor.blockTimeoutNanos = unit.toNanos(blockTimeout);
+        AsyncEventExecutor.executor = executor;
+    }
+
+    /*
+     * Stops accepting new tasks and waits for queued handlers to finish
+     */
+    public static synchronized void shutdown(long timeout, TimeUnit unit) {
+        ThreadPoolExecutor executor = AsyncEventExecutor.executor;
+        if (executor == null) {
+            return;
+        }
+
+        AsyncEventExecutor.executor = null;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Queues a task, returning false if it was not accepted. If block is set, waits for room in the queue
+     * up to the block timeout, so a stuck handler cannot stall the main thread for good
+     */
+    static boolean submit(Runnable task, boolean block) {
+        ThreadPoolExecutor executor = AsyncEventExecutor.executor;
+        if (executor == null) {
+            return false;
+        }
+
+        if (!block) {
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        try {
+            if (!executor.getQueue().offer(task, blockTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        // Executor might have been shut down meanwhile
+        if (executor.isShutdown() && executor.remove(task)) {
+            return false;
+        }
+        return true;
+    }
+}
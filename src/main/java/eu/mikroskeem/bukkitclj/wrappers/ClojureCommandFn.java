@@ -25,24 +25,36 @@
 
 package eu.mikroskeem.bukkitclj.wrappers;
 
+import clojure.lang.AFn;
 import clojure.lang.IFn;
+import clojure.lang.IReduceInit;
+import clojure.lang.ISeq;
 import clojure.lang.Namespace;
+import clojure.lang.RT;
+import eu.mikroskeem.bukkitclj.stats.InvocationStats;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.util.StringUtil;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 /**
+ * A Clojure command. Handlers receive arguments as a persistent vector view over the argument array.
+ *
  * @author Mark Vainomaa
  */
 public final class ClojureCommandFn extends Command {
+    private static volatile CompletionCache completionCache = new CompletionCache(0, 0);
+
     private final Namespace namespace;
-    private final IFn handler;
-    private IFn tabcompleteHandler;
+    private volatile IFn handler;
+    private volatile IFn tabcompleteHandler;
+    private boolean filterPrefix;
+    private final InvocationStats stats;
+    private final InvocationStats tabcompleteStats;
 
     public ClojureCommandFn(Namespace namespace, String name, String permission, String[] aliases, IFn handler) {
         super(name, "", "", Collections.emptyList());
@@ -50,13 +62,55 @@ public final class ClojureCommandFn extends Command {
         this.handler = handler;
         this.setPermission(permission);
         this.setAliases(Arrays.asList(aliases));
+        this.stats = new InvocationStats(namespace.getName().getName() + " /" + name);
+        this.tabcompleteStats = new InvocationStats(namespace.getName().getName() + " /" + name + " (tab complete)");
     }
 
-    public void setTabcompleteHandler(IFn tabcompleteHandler) {
+    public InvocationStats getStats() {
+        return stats;
+    }
+
+    public InvocationStats getTabcompleteStats() {
+        return tabcompleteStats;
+    }
+
+    public IFn getHandler() {
+        return handler;
+    }
+
+    public IFn getTabcompleteHandler() {
+        return tabcompleteHandler;
+    }
+
+    /*
+     * Replaces both handler functions, used to swap in a new version of the script
+     */
+    public void swapHandlers(IFn handler, IFn tabcompleteHandler) {
+        this.handler = handler;
+        this.tabcompleteHandler = tabcompleteHandler;
+        invalidateCompletions();
+    }
+
+    /*
+     * Drops cached completions of this command, which also keep its handlers reachable
+     */
+    public void invalidateCompletions() {
+        completionCache.invalidate(this);
+    }
+
+    public void setTabcompleteHandler(IFn tabcompleteHandler, boolean filterPrefix) {
         if (this.tabcompleteHandler != null) {
             throw new IllegalStateException("Tab complete handler is already set");
         }
         this.tabcompleteHandler = tabcompleteHandler;
+        this.filterPrefix = filterPrefix;
+    }
+
+    /*
+     * Returns whether completions are filtered by the argument being completed
+     */
+    public boolean isFilterPrefix() {
+        return filterPrefix;
     }
 
     @Override
@@ -64,8 +118,13 @@ public final class ClojureCommandFn extends Command {
         if (!testPermission(sender))
             return true;
 
-        
-        Object result = this.handler.invoke(sender, label, Arrays.asList(args));
+        Object result;
+        long start = System.nanoTime();
+        try {
+            result = this.handler.invoke(sender, label, new ArgumentVector(args));
+        } finally {
+            stats.record(System.nanoTime() - start);
+        }
         if (result instanceof Boolean) {
             return (Boolean) result;
         } else {
@@ -76,21 +135,91 @@ public final class ClojureCommandFn extends Command {
     @Override
     public List<String> tabComplete(CommandSender sender, String label, String[] args) throws IllegalArgumentException {
         if (args.length == 0) {
-            return Collections.emptyList();
+            return new ArrayList<>();
         }
 
+        IFn tabcompleteHandler = this.tabcompleteHandler;
         if (tabcompleteHandler == null) {
             return super.tabComplete(sender, label, args);
         }
 
-        Object result = this.tabcompleteHandler.invoke(sender, label, Arrays.asList(args));
-        if (result instanceof List) {
-            return (List<String>) result;
-        } else if (result instanceof Collection) {
-            return new ArrayList<>((Collection<String>) result);
+        String prefix = filterPrefix ? args[args.length - 1] : null;
+        CompletionCache cache = completionCache;
+        if (!cache.isEnabled()) {
+            return toCompletions(invokeTabcomplete(tabcompleteHandler, sender, label, args), prefix);
+        }
+
+        // With prefix filtering the argument being completed is not part of the key, so
+        // narrowing completions are filtered from the same cached superset. The superset is
+        // what the handler returns for an empty argument, not for whatever was typed so far
+        String senderName = sender != null ? sender.getName() : "";
+        int keyLength = filterPrefix ? args.length - 1 : args.length;
+        List<String> completions = cache.get(senderName, this, args, keyLength);
+        if (completions == null) {
+            String[] handlerArgs = args;
+            if (filterPrefix) {
+                handlerArgs = args.clone();
+                handlerArgs[handlerArgs.length - 1] = "";
+            }
+            completions = Collections.unmodifiableList(toCompletions(invokeTabcomplete(tabcompleteHandler, sender, label, handlerArgs), ""));
+            cache.put(senderName, this, args, keyLength, completions);
+        }
+        return prefix != null ? toCompletions(completions, prefix) : new ArrayList<>(completions);
+    }
+
+    private Object invokeTabcomplete(IFn tabcompleteHandler, CommandSender sender, String label, String[] args) {
+        long start = System.nanoTime();
+        try {
+            return tabcompleteHandler.invoke(sender, label, new ArgumentVector(args));
+        } finally {
+            tabcompleteStats.record(System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Sets the cache shared by completions of all Clojure commands
+     */
+    public static void setCompletionCache(CompletionCache completionCache) {
+        ClojureCommandFn.completionCache = completionCache;
+    }
+
+    /*
+     * Converts whatever the completion handler returned into a new mutable list, filtering by prefix if given.
+     * Handler results are usually immutable vectors, while TabCompleteEvent listeners may modify completions.
+     */
+    private static List<String> toCompletions(Object result, String prefix) {
+        List<String> completions = new ArrayList<>();
+        if (result == null) {
+            return completions;
+        } else if (result instanceof IReduceInit) {
+            // Vectors, ranges and eductions are reduced without creating a seq or iterator
+            ((IReduceInit) result).reduce(new AFn() {
+                @Override
+                public Object invoke(Object list, Object completion) {
+                    addCompletion(completions, completion, prefix);
+                    return list;
+                }
+            }, completions);
+        } else if (result instanceof Iterable) {
+            for (Object completion : (Iterable<?>) result) {
+                addCompletion(completions, completion, prefix);
+            }
         } else {
-            // Class cast exception prone, nothing for us to do here really.
-            return (List<String>) result;
+            for (ISeq seq = RT.seq(result); seq != null; seq = seq.next()) {
+                addCompletion(completions, seq.first(), prefix);
+            }
+        }
+        return completions;
+    }
+
+    private static void addCompletion(List<String> completions, Object completion, String prefix) {
+        if (completion == null) {
+            return;
+        }
+
+        String value = completion.toString();
+        if (prefix == null || StringUtil.startsWithIgnoreCase(value, prefix)) {
+            completions.add(value);
         }
     }
 }
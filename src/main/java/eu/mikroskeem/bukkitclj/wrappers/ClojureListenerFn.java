@@ -27,79 +27,222 @@ package eu.mikroskeem.bukkitclj.wrappers;
 
 import clojure.lang.IFn;
 import clojure.lang.Namespace;
-import co.aikar.timings.Timing;
-import co.aikar.timings.Timings;
 import eu.mikroskeem.bukkitclj.BukkitClj;
-import org.bukkit.Bukkit;
+import eu.mikroskeem.bukkitclj.stats.InvocationStats;
 import org.bukkit.event.Event;
-import org.bukkit.event.EventException;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
-import org.bukkit.plugin.EventExecutor;
 
-import java.lang.reflect.Method;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * A Clojure event handler. Listeners are registered to Bukkit through {@link EventDispatcher}.
+ *
+ * Async listeners run on {@link AsyncEventExecutor}. Event is passed through the snapshot function
+ * on the main thread, and the handler receives its result instead of the event itself. Live events
+ * are never handed to other threads, so async listeners always have a snapshot function.
+ *
  * @author Mark Vainomaa
  */
-public final class ClojureListenerFn implements Listener, EventExecutor {
+public final class ClojureListenerFn {
     private final Namespace namespace;
-    private final IFn handler;
+    private volatile IFn handler;
+    private volatile IFn snapshot;
     private final Class<? extends Event> eventClass;
-    private final Method getHandlerListMethod;
+    private final HandlerList handlerList;
     private final EventPriority eventPriority;
     private final boolean ignoreCancelled;
+    private final Backpressure backpressure; // null for synchronous listeners
+    private final InvocationStats stats; // Time spent on the thread firing the event
+    private final InvocationStats asyncStats; // Time spent in handler on AsyncEventExecutor, null for synchronous listeners
+    private final AtomicReference<Object> pending = new AtomicReference<>(NONE); // Latest snapshot waiting for coalescing handler
+    private final AtomicBoolean draining = new AtomicBoolean(); // Whether a drain task of coalescing handler is queued or running
+    private final AtomicLong dropped = new AtomicLong();
 
     public ClojureListenerFn(Namespace namespace, IFn handler, Class<? extends Event> eventClass,
                              EventPriority eventPriority, boolean ignoreCancelled) {
+        this(namespace, handler, eventClass, eventPriority, ignoreCancelled, null, null);
+    }
+
+    public ClojureListenerFn(Namespace namespace, IFn handler, Class<? extends Event> eventClass,
+                             EventPriority eventPriority, boolean ignoreCancelled, IFn snapshot, Backpressure backpressure) {
         this.namespace = namespace;
         this.handler = handler;
+        this.snapshot = snapshot;
+        this.backpressure = backpressure;
         this.eventClass = eventClass;
-        this.getHandlerListMethod = getHandlerListMethod(eventClass);
+        this.handlerList = handlerLists.get(eventClass);
         this.eventPriority = eventPriority;
         this.ignoreCancelled = ignoreCancelled;
+        this.stats = new InvocationStats(namespace.getName().getName() + " " + eventClass.getSimpleName() + " " + eventPriority);
+        this.asyncStats = backpressure != null ? new InvocationStats(stats.getName() + " (async)") : null;
+    }
+
+    public Namespace getNamespace() {
+        return namespace;
+    }
+
+    public IFn getHandler() {
+        return handler;
+    }
+
+    public IFn getSnapshot() {
+        return snapshot;
+    }
+
+    /*
+     * Replaces handler and snapshot functions, used to swap in a new version of the script
+     */
+    public void swapHandlers(IFn handler, IFn snapshot) {
+        this.handler = handler;
+        this.snapshot = snapshot;
     }
 
     public Class<? extends Event> getEventClass() {
         return eventClass;
     }
 
+    public EventPriority getEventPriority() {
+        return eventPriority;
+    }
+
+    public boolean isIgnoreCancelled() {
+        return ignoreCancelled;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public InvocationStats getStats() {
+        return stats;
+    }
+
+    /*
+     * Returns statistics of handler invocations on async workers, or null for synchronous listeners
+     */
+    public InvocationStats getAsyncStats() {
+        return asyncStats;
+    }
+
     public HandlerList getEventHandlerList() {
+        return handlerList;
+    }
+
+    /*
+     * Invokes the handler. Event type is checked by the dispatcher
+     */
+    void dispatch(Event event) {
+        long start = System.nanoTime();
         try {
-            return (HandlerList) this.getHandlerListMethod.invoke(null);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to get HandlerList of " + this.eventClass.getName(), e);
+            if (backpressure != null) {
+                // Only snapshotting and queueing the event is counted here
+                dispatchAsync(event);
+            } else {
+                handler.invoke(event);
+            }
+        } finally {
+            stats.record(System.nanoTime() - start);
         }
     }
 
-    public void register() {
-        BukkitClj plugin = BukkitClj.getInstance();
-        Bukkit.getServer().getPluginManager().registerEvent(eventClass, this, eventPriority, this, plugin, ignoreCancelled);
+    private void dispatchAsync(Event event) {
+        Object data = snapshot.invoke(event);
+
+        switch (backpressure) {
+            case DROP:
+            case BLOCK:
+                if (!AsyncEventExecutor.submit(() -> invokeAsync(data), backpressure == Backpressure.BLOCK)) {
+                    drop();
+                }
+                break;
+            case COALESCE:
+                // Only the latest snapshot is kept, drain task is queued when no drain is queued or running
+                pending.set(data != null ? data : NIL);
+                if (draining.compareAndSet(false, true) && !AsyncEventExecutor.submit(this::drainPending, false)) {
+                    pending.set(NONE);
+                    draining.set(false);
+                    drop();
+                }
+                break;
+        }
+    }
+
+    /*
+     * Runs the handler until no snapshot is pending. Only one drain runs at a time, so the handler
+     * never runs on two workers at once
+     */
+    private void drainPending() {
+        do {
+            Object data;
+            while ((data = pending.getAndSet(NONE)) != NONE) {
+                invokeAsync(data != NIL ? data : null);
+            }
+            draining.set(false);
+
+            // Snapshot set after the last check did not queue a drain, as this one was still running
+        } while (pending.get() != NONE && draining.compareAndSet(false, true));
     }
 
-    @Override
-    public void execute(Listener listener, Event event) throws EventException {
-        if (listener != this)
-            return;
+    private void invokeAsync(Object data) {
+        long start = System.nanoTime();
+        try {
+            handler.invoke(data);
+        } catch (Throwable t) {
+            BukkitClj.getInstance().getSLF4JLogger().error("Could not pass event {} to {}",
+                    eventClass.getSimpleName(), namespace, t);
+        } finally {
+            asyncStats.record(System.nanoTime() - start);
+        }
+    }
 
-        if (!eventClass.isAssignableFrom(event.getClass()))
-            return;
+    private void drop() {
+        if (dropped.getAndIncrement() == 0) {
+            BukkitClj.getInstance().getSLF4JLogger().warn("Async listener for {} in {} cannot keep up, dropping events",
+                    eventClass.getSimpleName(), namespace);
+        }
+    }
 
-        
-        handler.invoke(event);
+    /**
+     * What to do with events of an async listener when handler queue is full
+     */
+    public enum Backpressure {
+        /** Event is not handled */
+        DROP,
+        /** Main thread waits a limited time for room in the queue, then the event is dropped */
+        BLOCK,
+        /** Only the latest event waiting to be handled is kept */
+        COALESCE
     }
 
-    private static final Map<Class<? extends Event>, Method> handlerListMethods = new WeakHashMap<>();
-    private static Method getHandlerListMethod(Class<? extends Event> eventClass) {
-        return handlerListMethods.computeIfAbsent(eventClass, (clazz) -> {
+    private static final Object NONE = new Object();
+    private static final Object NIL = new Object();
+
+    /*
+     * HandlerList of an event class never changes, so it is resolved once per class. ClassValue
+     * is safe to use from multiple loading threads and does not keep event classes from unloading
+     */
+    private static final ClassValue<HandlerList> handlerLists = new ClassValue<HandlerList>() {
+        @Override
+        protected HandlerList computeValue(Class<?> eventClass) {
+            MethodHandle getHandlerList;
             try {
-                return clazz.getMethod("getHandlerList");
-            } catch (NoSuchMethodException e) {
-                throw new RuntimeException("Class " + clazz.getName() + " has no static getHandlerList method!");
+                getHandlerList = MethodHandles.publicLookup().findStatic(eventClass, "getHandlerList",
+                        MethodType.methodType(HandlerList.class));
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Class " + eventClass.getName() + " has no static getHandlerList method!", e);
             }
-        });
-    }
+
+            try {
+                return (HandlerList) getHandlerList.invokeExact();
+            } catch (Throwable t) {
+                throw new RuntimeException("Failed to get HandlerList of " + eventClass.getName(), t);
+            }
+        }
+    };
 }
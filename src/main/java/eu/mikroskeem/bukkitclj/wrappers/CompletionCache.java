@@ -0,0 +1,127 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj.wrappers;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Size bounded cache of tab completion results, keyed by sender, command and arguments.
+ * Entries expire after a fixed time, least recently used entries are evicted when the cache is full.
+ *
+ * @author Mark Vainomaa
+ */
+public final class CompletionCache {
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    public CompletionCache(long ttlMillis, int maxSize) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return ttlNanos > 0;
+    }
+
+    /*
+     * Returns cached completions of given sender, command and first argCount arguments
+     */
+    synchronized List<String> get(String sender, Object command, String[] args, int argCount) {
+        Key key = new Key(sender, command, args, argCount);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.createdAt > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.completions;
+    }
+
+    synchronized void put(String sender, Object command, String[] args, int argCount, List<String> completions) {
+        entries.put(new Key(sender, command, args, argCount), new Entry(completions, System.nanoTime()));
+    }
+
+    /*
+     * Forgets all completions of given command, used when its handler changes
+     */
+    synchronized void invalidate(Object command) {
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().command == command) {
+                keys.remove();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String sender;
+        private final Object command;
+        private final String[] args;
+        private final int hash;
+
+        private Key(String sender, Object command, String[] args, int argCount) {
+            this.sender = sender;
+            this.command = command;
+            this.args = Arrays.copyOf(args, argCount);
+            this.hash = Objects.hash(sender, System.identityHashCode(command), Arrays.hashCode(this.args));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return command == other.command && Objects.equals(sender, other.sender) && Arrays.equals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final List<String> completions;
+        private final long createdAt;
+
+        private Entry(List<String> completions, long createdAt) {
+            this.completions = completions;
+            this.createdAt = createdAt;
+        }
+    }
+}
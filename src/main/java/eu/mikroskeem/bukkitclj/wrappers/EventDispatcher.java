@@ -0,0 +1,204 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj.wrappers;
+
+import eu.mikroskeem.bukkitclj.BukkitClj;
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Single Bukkit registration for all Clojure listeners sharing event class, priority and
+ * ignoreCancelled flag. Registered listeners are kept in an array which is replaced
+ * whenever scripts are loaded or unloaded.
+ *
+ * @author Mark Vainomaa
+ */
+public final class EventDispatcher implements Listener, EventExecutor {
+    private static final ClojureListenerFn[] NO_LISTENERS = new ClojureListenerFn[0];
+    private static final Map<Key, EventDispatcher> dispatchers = new HashMap<>();
+
+    private final Key key;
+    private final HandlerList handlerList;
+    private final ClassValue<Boolean> accepts; // Concrete event class -> whether it is handled by this dispatcher
+    private volatile ClojureListenerFn[] listeners = NO_LISTENERS;
+
+    private EventDispatcher(Key key, HandlerList handlerList) {
+        this.key = key;
+        this.handlerList = handlerList;
+        this.accepts = new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return key.eventClass.isAssignableFrom(type);
+            }
+        };
+    }
+
+    @Override
+    public void execute(Listener listener, Event event) {
+        if (listener != this)
+            return;
+
+        // Handler lists are shared with event subclasses, so the check is done once per concrete class
+        if (!accepts.get(event.getClass()))
+            return;
+
+        for (ClojureListenerFn handler : listeners) {
+            try {
+                handler.dispatch(event);
+            } catch (Throwable t) {
+                BukkitClj.getInstance().getSLF4JLogger().error("Could not pass event {} to {}",
+                        event.getEventName(), handler.getNamespace(), t);
+            }
+        }
+    }
+
+    /*
+     * Returns listeners currently registered to this dispatcher
+     */
+    public List<ClojureListenerFn> getListeners() {
+        return Collections.unmodifiableList(Arrays.asList(listeners));
+    }
+
+    /*
+     * Adds listeners to their dispatchers, registering new dispatchers to Bukkit as needed
+     */
+    public static synchronized void register(Collection<ClojureListenerFn> listeners) {
+        for (Map.Entry<Key, List<ClojureListenerFn>> entry : groupByKey(listeners).entrySet()) {
+            EventDispatcher dispatcher = dispatchers.get(entry.getKey());
+            if (dispatcher == null) {
+                Key key = entry.getKey();
+                dispatcher = new EventDispatcher(key, entry.getValue().get(0).getEventHandlerList());
+                Bukkit.getServer().getPluginManager().registerEvent(key.eventClass, dispatcher, key.priority,
+                        dispatcher, BukkitClj.getInstance(), key.ignoreCancelled);
+                dispatchers.put(key, dispatcher);
+            }
+
+            ClojureListenerFn[] current = dispatcher.listeners;
+            ClojureListenerFn[] updated = Arrays.copyOf(current, current.length + entry.getValue().size());
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                updated[current.length + i] = entry.getValue().get(i);
+            }
+            dispatcher.listeners = updated;
+        }
+    }
+
+    /*
+     * Removes listeners from their dispatchers, unregistering dispatchers left without listeners
+     */
+    public static synchronized void unregister(Collection<ClojureListenerFn> listeners) {
+        for (Map.Entry<Key, List<ClojureListenerFn>> entry : groupByKey(listeners).entrySet()) {
+            EventDispatcher dispatcher = dispatchers.get(entry.getKey());
+            if (dispatcher == null) {
+                continue;
+            }
+
+            Set<ClojureListenerFn> removed = new HashSet<>(entry.getValue());
+            List<ClojureListenerFn> remaining = new ArrayList<>(dispatcher.listeners.length);
+            for (ClojureListenerFn listener : dispatcher.listeners) {
+                if (!removed.contains(listener)) {
+                    remaining.add(listener);
+                }
+            }
+
+            if (remaining.isEmpty()) {
+                dispatcher.handlerList.unregister(dispatcher);
+                dispatchers.remove(entry.getKey());
+            }
+            dispatcher.listeners = remaining.toArray(NO_LISTENERS);
+        }
+    }
+
+    /*
+     * Creates a dispatcher for given listeners without registering it to Bukkit, used by benchmarks
+     */
+    static EventDispatcher createUnregistered(Collection<ClojureListenerFn> listeners) {
+        ClojureListenerFn first = listeners.iterator().next();
+        Key key = new Key(first.getEventClass(), first.getEventPriority(), first.isIgnoreCancelled());
+        EventDispatcher dispatcher = new EventDispatcher(key, first.getEventHandlerList());
+        dispatcher.listeners = listeners.toArray(NO_LISTENERS);
+        return dispatcher;
+    }
+
+    /*
+     * Forgets all dispatchers. Bukkit unregisters them by itself when the plugin gets disabled
+     */
+    public static synchronized void reset() {
+        for (EventDispatcher dispatcher : dispatchers.values()) {
+            dispatcher.listeners = NO_LISTENERS;
+        }
+        dispatchers.clear();
+    }
+
+    private static Map<Key, List<ClojureListenerFn>> groupByKey(Collection<ClojureListenerFn> listeners) {
+        Map<Key, List<ClojureListenerFn>> grouped = new LinkedHashMap<>();
+        for (ClojureListenerFn listener : listeners) {
+            Key key = new Key(listener.getEventClass(), listener.getEventPriority(), listener.isIgnoreCancelled());
+            grouped.computeIfAbsent(key, k -> new ArrayList<>()).add(listener);
+        }
+        return grouped;
+    }
+
+    private static final class Key {
+        private final Class<? extends Event> eventClass;
+        private final EventPriority priority;
+        private final boolean ignoreCancelled;
+
+        private Key(Class<? extends Event> eventClass, EventPriority priority, boolean ignoreCancelled) {
+            this.eventClass = eventClass;
+            this.priority = priority;
+            this.ignoreCancelled = ignoreCancelled;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return eventClass == other.eventClass && priority == other.priority && ignoreCancelled == other.ignoreCancelled;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(eventClass, priority, ignoreCancelled);
+        }
+    }
+}
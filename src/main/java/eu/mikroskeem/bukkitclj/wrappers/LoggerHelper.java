@@ -25,19 +25,98 @@
 
 package eu.mikroskeem.bukkitclj.wrappers;
 
+import clojure.lang.Keyword;
 import clojure.lang.Namespace;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.event.Level;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
+ * Logging helpers used by {@code bukkitclj.api.logger} macros.
+ *
+ * Macros reference logger through a var interned into the namespace on first use, check whether given level
+ * is enabled before evaluating arguments, and use fixed-arity methods for up to two arguments to avoid
+ * allocating an argument array.
+ *
  * @author Mark Vainomaa
  */
 public final class LoggerHelper {
+    private static final Map<String, Logger> loggers = new ConcurrentHashMap<>(); // Namespace name -> logger
+    public static final Symbol LOGGER_VAR = Symbol.intern("__bukkitclj-logger");
+
     private LoggerHelper() {}
 
+    /*
+     * Interns a private var holding the logger of given namespace, unless it is there already.
+     * Compiled scripts loaded from cache reference the var without expanding macros, so script
+     * loader interns it before loading them
+     */
+    public static Var intern(Namespace ns) {
+        Var var = ns.findInternedVar(LOGGER_VAR);
+        if (var == null || !var.hasRoot()) {
+            var = Var.intern(ns, LOGGER_VAR, get(ns));
+            var.alterMeta(RT.var("clojure.core", "assoc"), RT.list(Keyword.intern("private"), Boolean.TRUE));
+        }
+        return var;
+    }
+
     public static Logger get(Namespace ns) {
-        return LoggerFactory.getLogger("BukkitClj/" + ns.getName().getName());
+        return get(ns.getName().getName());
+    }
+
+    public static Logger get(String namespace) {
+        Logger logger = loggers.get(namespace);
+        if (logger == null) {
+            logger = loggers.computeIfAbsent(namespace, k -> LoggerFactory.getLogger("BukkitClj/" + k));
+        }
+        return logger;
+    }
+
+    public static boolean isEnabled(Level level, Logger logger) {
+        switch (level) {
+            case TRACE: return logger.isTraceEnabled();
+            case DEBUG: return logger.isDebugEnabled();
+            case INFO:  return logger.isInfoEnabled();
+            case WARN:  return logger.isWarnEnabled();
+            case ERROR: return logger.isErrorEnabled();
+            default:    return false;
+        }
+    }
+
+    public static void log0(Level level, Logger logger, String fmt) {
+        switch (level) {
+            case TRACE: logger.trace(fmt); break;
+            case DEBUG: logger.debug(fmt); break;
+            case INFO:  logger.info(fmt); break;
+            case WARN:  logger.warn(fmt); break;
+            case ERROR: logger.error(fmt); break;
+        }
+    }
+
+    public static void log1(Level level, Logger logger, String fmt, Object arg) {
+        switch (level) {
+            case TRACE: logger.trace(fmt, arg); break;
+            case DEBUG: logger.debug(fmt, arg); break;
+            case INFO:  logger.info(fmt, arg); break;
+            case WARN:  logger.warn(fmt, arg); break;
+            case ERROR: logger.error(fmt, arg); break;
+        }
+    }
+
+    public static void log2(Level level, Logger logger, String fmt, Object arg1, Object arg2) {
+        switch (level) {
+            case TRACE: logger.trace(fmt, arg1, arg2); break;
+            case DEBUG: logger.debug(fmt, arg1, arg2); break;
+            case INFO:  logger.info(fmt, arg1, arg2); break;
+            case WARN:  logger.warn(fmt, arg1, arg2); break;
+            case ERROR: logger.error(fmt, arg1, arg2); break;
+        }
     }
 
     public static void log(Level level, Logger logger, String fmt, Object[] args) {
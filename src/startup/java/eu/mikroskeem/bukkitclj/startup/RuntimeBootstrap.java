@@ -0,0 +1,69 @@
+/*
+ * This file is part of project BukkitClj, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2019-2020 Mark Vainomaa <mikroskeem@mikroskeem.eu>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package eu.mikroskeem.bukkitclj.startup;
+
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Boots the Clojure runtime the same way BukkitClj does on enable, without a server, and then
+ * loads bukkitclj.api like the first script requiring it would.
+ *
+ * Used as the training run when creating the AOT cache, and to compare runtime boot time
+ * with and without it.
+ *
+ * @author Mark Vainomaa
+ */
+public final class RuntimeBootstrap {
+    public static void main(String[] args) {
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        long start = System.nanoTime();
+        int classesBefore = classLoading.getLoadedClassCount();
+
+        RT.init();
+        long init = System.nanoTime();
+
+        RT.load("clojure/core");
+        RT.load("bukkitclj/internal");
+        long runtime = System.nanoTime();
+
+        RT.var("clojure.core", "require").invoke(Symbol.intern("bukkitclj.api"));
+        long end = System.nanoTime();
+
+        System.out.printf("{\"aot-cache\": %s, \"jvm-uptime-ms\": %d, \"rt-init-ms\": %d, \"runtime-load-ms\": %d, \"api-load-ms\": %d, \"total-ms\": %d, \"classes-loaded\": %d}%n",
+                args.length > 0 ? '"' + args[0] + '"' : "null",
+                ManagementFactory.getRuntimeMXBean().getUptime(),
+                TimeUnit.NANOSECONDS.toMillis(init - start),
+                TimeUnit.NANOSECONDS.toMillis(runtime - init),
+                TimeUnit.NANOSECONDS.toMillis(end - runtime),
+                TimeUnit.NANOSECONDS.toMillis(end - start),
+                classLoading.getLoadedClassCount() - classesBefore);
+    }
+}